@@ -17,9 +17,7 @@ package com.planbase.pdf.layoutmanager;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 /**
  A styled table cell or layout block with a pre-set horizontal width.  Vertical height is calculated 
@@ -34,7 +32,10 @@ public class Cell implements Renderable {
     // A list of the contents.  It's pretty limiting to have one item per row.
     private final List<Renderable> rows;
 
-    private final Map<Float,PreCalcRows> preCalcRows = new HashMap<Float,PreCalcRows>(0);
+    // Draw once per document into Form XObjects, then place by reference.  See stamped().
+    private final boolean stamp;
+
+    private final FloatMap<PreCalcRows> preCalcRows = new FloatMap<PreCalcRows>();
 
     private static class PreCalcRow {
         Renderable row;
@@ -49,7 +50,9 @@ public class Cell implements Renderable {
         XyDim blockDim;
     }
 
-    private Cell(CellStyle cs, float w, List<Renderable> rs) {
+    private Cell(CellStyle cs, float w, List<Renderable> rs) { this(cs, w, rs, false); }
+
+    private Cell(CellStyle cs, float w, List<Renderable> rs, boolean st) {
         if (w < 0) {
             throw new IllegalArgumentException("A cell cannot have a negative width");
         }
@@ -58,7 +61,7 @@ public class Cell implements Renderable {
 //                throw new IllegalArgumentException("How am I supposed to render a null?");
 //            }
 //        }
-        cellStyle = cs; width = w; rows = rs;
+        cellStyle = cs; width = w; rows = rs; stamp = st;
     }
 
     /**
@@ -116,6 +119,64 @@ public class Cell implements Renderable {
     // public BorderStyle border() { return borderStyle; }
     public float width() { return width; }
 
+    /**
+     Returns a copy of this cell that's drawn only once per document, into a Form XObject, and
+     then placed by reference everywhere the same stamped contents are rendered at the same size.
+     For labels, logos, check-boxes, or boilerplate that repeats on many rows or pages, this makes
+     the PDF smaller and faster to write and to view.  "The same" means an equal CellStyle and
+     width, and rows containing the same TextStyle objects with equal text, the same image
+     objects, or nested cells that are the same by these rules.  A cell that contains any other
+     kind of Renderable, that would break across pages, or that is a header or footer is drawn the
+     usual way.
+     */
+    public Cell stamped() { return stamp ? this : new Cell(cellStyle, width, rows, true); }
+
+    /** Whether this is a stamped() cell. */
+    public boolean isStamped() { return stamp; }
+
+    /**
+     Adds whatever determines what this cell draws to the given key for the stamp cache.  TextStyles
+     and images compare by identity.
+     @return false if this cell has contents that can't be compared that way
+     */
+    boolean addStampKey(List<Object> key) {
+        key.add(Cell.class);
+        key.add(width);
+        key.add(cellStyle.align());
+        key.add(cellStyle.padding());
+        key.add(cellStyle.bgColor());
+        BorderStyle border = cellStyle.borderStyle();
+        key.add((border == null) ? null : border.top());
+        key.add((border == null) ? null : border.right());
+        key.add((border == null) ? null : border.bottom());
+        key.add((border == null) ? null : border.left());
+        key.add(rows.size());
+        for (Renderable row : rows) {
+            if (row == null) {
+                key.add(null);
+            } else if (row instanceof Text) {
+                Text t = (Text) row;
+                key.add(t.style());
+                key.add(t.text());
+            } else if (row instanceof ScaledJpeg) {
+                ScaledJpeg sj = (ScaledJpeg) row;
+                key.add(ScaledJpeg.class);
+                key.add(sj.source());
+                key.add(sj.dimensions());
+            } else if (row instanceof ScaledPng) {
+                ScaledPng sp = (ScaledPng) row;
+                key.add(ScaledPng.class);
+                key.add(sp.source());
+                key.add(sp.dimensions());
+            } else if (row instanceof Cell) {
+                if (!((Cell) row).addStampKey(key)) { return false; }
+            } else {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private void calcDimensionsForReal(final float maxWidth) {
         PreCalcRows pcrs = new PreCalcRows();
         XyDim blockDim = XyDim.ZERO;
@@ -170,6 +231,11 @@ public class Cell implements Renderable {
 //        System.out.println("Cell.render(" + this.toString());
 //        new Exception().printStackTrace();
 
+        if (stamp && !allPages) {
+            XyOffset lowerRight = lp.putStamp(this, outerTopLeft, outerDimensions);
+            if (lowerRight != null) { return lowerRight; }
+        }
+
         float maxWidth = outerDimensions.x();
         PreCalcRows pcrs = ensurePreCalcRows(maxWidth);
         final Padding padding = cellStyle.padding();
@@ -349,7 +415,7 @@ public class Cell implements Renderable {
     /** {@inheritDoc} */
     @Override public String toString() {
         StringBuilder sB = new StringBuilder("Cell(").append(cellStyle).append(" width=")
-                .append(width).append(" rows=[");
+                .append(width).append(stamp ? " stamped" : "").append(" rows=[");
 
         for (int i = 0; (i < rows.size()) && (i < 3); i++) {
             if (i > 0) { sB.append(" "); }
@@ -0,0 +1,122 @@
+// Copyright 2026-10-15 PlanBase Inc. & Glen Peterson
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.planbase.pdf.layoutmanager;
+
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ Deflates uncompressed page content streams, on an Executor if there is one, and puts the
+ compressed bytes back into their streams in the order the pages were added.  Only the deflating
+ happens on the executor.  Reading and writing the streams (which may be in PDFBox's scratch file)
+ stays on the thread that owns the document.  Not thread-safe.
+ */
+final class ContentDeflater {
+    private static final class Pending {
+        final COSStream stream;
+        final Future<byte[]> deflated;
+        Pending(COSStream s, Future<byte[]> d) { stream = s; deflated = d; }
+    }
+
+    // Null means deflate on the calling thread.
+    private final Executor executor;
+    private final int level;
+    private final Queue<Pending> pending = new ArrayDeque<Pending>();
+
+    private ContentDeflater(Executor e, int l) { executor = e; level = l; }
+
+    static ContentDeflater of(Executor executor, int level) {
+        return new ContentDeflater(executor, level);
+    }
+
+    /**
+     Deflates the given uncompressed content stream (now, or on the executor).
+     @return the number of compressed bytes attached to streams so far by this call
+     */
+    long add(COSStream stream) throws IOException {
+        final byte[] raw = readAll(stream);
+        Callable<byte[]> deflate = new Callable<byte[]>() {
+            @Override public byte[] call() throws IOException { return deflate(raw, level); }
+        };
+        if (executor == null) {
+            return attach(stream, deflate(raw, level));
+        }
+        FutureTask<byte[]> task = new FutureTask<byte[]>(deflate);
+        executor.execute(task);
+        pending.add(new Pending(stream, task));
+        return attachFinished(false);
+    }
+
+    /**
+     Attaches deflated content to its stream, in order, stopping at the first one that isn't
+     finished unless told to wait.
+     @return the number of compressed bytes attached
+     */
+    long attachFinished(boolean wait) throws IOException {
+        long bytes = 0;
+        while (!pending.isEmpty() && (wait || pending.peek().deflated.isDone())) {
+            Pending p = pending.remove();
+            bytes += attach(p.stream, Utils.get(p.deflated, "page content"));
+        }
+        return bytes;
+    }
+
+    static long attach(COSStream stream, byte[] deflated) throws IOException {
+        OutputStream os = stream.createRawOutputStream();
+        try {
+            os.write(deflated);
+        } finally {
+            os.close();
+        }
+        stream.setItem(COSName.FILTER, COSName.FLATE_DECODE);
+        return deflated.length;
+    }
+
+    static byte[] readAll(COSStream stream) throws IOException {
+        InputStream is = stream.createRawInputStream();
+        try {
+            return Utils.readAll(is);
+        } finally {
+            is.close();
+        }
+    }
+
+    static byte[] deflate(byte[] raw, int level) throws IOException {
+        Deflater deflater = new Deflater(level);
+        try {
+            // Content streams usually deflate to less than a quarter of their size.
+            ByteArrayOutputStream baos = new ByteArrayOutputStream((raw.length / 4) + 64);
+            DeflaterOutputStream dos = new DeflaterOutputStream(baos, deflater);
+            dos.write(raw);
+            dos.close();
+            return baos.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+}
@@ -0,0 +1,272 @@
+// Copyright 2026-10-15 PlanBase Inc. & Glen Peterson
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.planbase.pdf.layoutmanager;
+
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.graphics.color.PDDeviceGray;
+import org.apache.pdfbox.pdmodel.graphics.image.JPEGFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+
+/**
+ <p>An image that's drawn on pages right away but embedded later: on DocOptions.imageExecutor(),
+ when the logical page it's on is committed (a lazy image), or when the document is saved, once
+ we know the largest size it was drawn at.  Then it's shrunk to DocOptions.maxImageDpi() at that
+ size (if it has more pixels than that) and embedded.  Until then, pages (and Form XObjects)
+ refer to a placeholder image whose stream and dictionary are filled in by
+ {@link #fill(PDDocument, Encoded)}.  Mutable, one per embedded image.</p>
+
+ <p>PDFBox documents aren't thread-safe (even creating a stream adds it to an unsynchronized
+ list), so the slow part, {@link #encode(float)}, compresses the image into a scratch document of
+ its own and returns the result detached from any document.  Only fill(), on the thread that
+ owns the real document, touches that document.</p>
+
+ <p>Each side is sized separately, because the image is stretched to where it's drawn anyway.</p>
+ */
+final class DeferredImage {
+    private final PDImageXObject placeholder;
+    // Exactly one of these is not null.
+    private final BufferedImage bufferedImage;
+    private final RawJpeg rawJpeg;
+    private final RawPng rawPng;
+    private final LazyImage lazy;
+    // JPEG or lossless, for a BufferedImage or LazyImage.
+    private final boolean jpeg;
+    private final int pixelWidth;
+    private final int pixelHeight;
+
+    // The largest size it's drawn at, in document units.
+    private float maxWidth = 0;
+    private float maxHeight = 0;
+
+    private DeferredImage(PDImageXObject p, BufferedImage bi, RawJpeg rj, RawPng rp, LazyImage li,
+                          boolean j, int w, int h) {
+        placeholder = p; bufferedImage = bi; rawJpeg = rj; rawPng = rp; lazy = li; jpeg = j;
+        pixelWidth = w; pixelHeight = h;
+    }
+
+    private static PDImageXObject placeholder(PDDocument doc) {
+        try {
+            return new PDImageXObject(doc, new ByteArrayInputStream(new byte[0]),
+                                      COSName.FLATE_DECODE, 1, 1, 8, PDDeviceGray.INSTANCE);
+        } catch (IOException ioe) {
+            throw new IllegalStateException("Couldn't make a placeholder image", ioe);
+        }
+    }
+
+    static DeferredImage of(PDDocument doc, ScaledJpeg sj) {
+        BufferedImage bi = sj.bufferedImage();
+        RawJpeg rj = sj.rawJpeg();
+        LazyImage li = sj.lazy();
+        if (bi != null) {
+            return new DeferredImage(placeholder(doc), bi, null, null, null, true, bi.getWidth(),
+                                     bi.getHeight());
+        }
+        return (rj != null)
+               ? new DeferredImage(placeholder(doc), null, rj, null, null, true, rj.width(),
+                                   rj.height())
+               : new DeferredImage(placeholder(doc), null, null, null, li, true, li.width(),
+                                   li.height());
+    }
+
+    static DeferredImage of(PDDocument doc, ScaledPng sp) {
+        BufferedImage bi = sp.bufferedImage();
+        RawPng rp = sp.rawPng();
+        LazyImage li = sp.lazy();
+        if (bi != null) {
+            return new DeferredImage(placeholder(doc), bi, null, null, null, false, bi.getWidth(),
+                                     bi.getHeight());
+        }
+        return (rp != null)
+               ? new DeferredImage(placeholder(doc), null, null, rp, null, false, rp.width(),
+                                   rp.height())
+               : new DeferredImage(placeholder(doc), null, null, null, li, false, li.width(),
+                                   li.height());
+    }
+
+    /** The image to draw.  It's empty until embed() is called. */
+    PDImageXObject image() { return placeholder; }
+
+    /** Records that the image is drawn at the given size. */
+    void placed(XyDim dim) {
+        maxWidth = Math.max(maxWidth, dim.x());
+        maxHeight = Math.max(maxHeight, dim.y());
+    }
+
+    /** How many pixels it takes to draw the given number of document units at the given DPI. */
+    private static int pixels(float docUnits, float dpi, int max) {
+        int px = (int) Math.ceil(docUnits / PdfLayoutMgr.DOC_UNITS_PER_INCH * dpi);
+        return Math.max(1, Math.min(px, max));
+    }
+
+    /**
+     A compressed image: its dictionary (minus the length), its raw (still encoded) data, and its
+     soft mask, if it has one.  Not part of any document.  Immutable.
+     */
+    static final class Encoded {
+        private final Map<COSName,COSBase> dict;
+        private final byte[] data;
+        private final Encoded softMask;
+
+        private Encoded(Map<COSName,COSBase> d, byte[] bs, Encoded sm) {
+            dict = d; data = bs; softMask = sm;
+        }
+
+        /** Copies the stream (and its soft mask) out of the document it's in. */
+        private static Encoded of(COSStream stream) throws IOException {
+            Map<COSName,COSBase> dict = new LinkedHashMap<COSName,COSBase>();
+            Encoded softMask = null;
+            for (Map.Entry<COSName,COSBase> entry : stream.entrySet()) {
+                COSName key = entry.getKey();
+                COSBase value = entry.getValue();
+                if (value instanceof COSObject) {
+                    value = ((COSObject) value).getObject();
+                }
+                if (COSName.LENGTH.equals(key)) {
+                    // The length is set when the data is written.
+                    continue;
+                } else if (COSName.SMASK.equals(key) && (value instanceof COSStream)) {
+                    softMask = of((COSStream) value);
+                } else if ( (value instanceof COSStream) || (value instanceof COSObject) ) {
+                    throw new IOException("Can't copy " + key + " from an image dictionary");
+                } else {
+                    dict.put(key, value);
+                }
+            }
+            InputStream in = stream.createRawInputStream();
+            try {
+                return new Encoded(dict, Utils.readAll(in), softMask);
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    /** Shrinks and compresses the image, and fills in the placeholder with it, on this thread. */
+    void embed(PDDocument doc, float maxDpi) throws IOException { fill(doc, encode(maxDpi)); }
+
+    /**
+     Shrinks the image if it needs to be and compresses it, without touching the real document, so
+     it can run on another thread while pages are drawn (pages only refer to the placeholder).
+     @param maxDpi zero to keep every pixel
+     */
+    Encoded encode(float maxDpi) throws IOException {
+        // PDFBox's factories need a document to make the image in.
+        PDDocument scratch = new PDDocument();
+        try {
+            return Encoded.of(toImage(scratch, maxDpi).getCOSObject());
+        } finally {
+            scratch.close();
+        }
+    }
+
+    /** Fills in the placeholder.  Only on the thread that owns the document. */
+    void fill(PDDocument doc, Encoded encoded) throws IOException {
+        fill(doc, placeholder.getCOSObject(), encoded);
+    }
+
+    private static void fill(PDDocument doc, COSStream target, Encoded encoded)
+            throws IOException {
+        target.clear();
+        for (Map.Entry<COSName,COSBase> entry : encoded.dict.entrySet()) {
+            target.setItem(entry.getKey(), entry.getValue());
+        }
+        if (encoded.softMask != null) {
+            COSStream softMask = doc.getDocument().createCOSStream();
+            fill(doc, softMask, encoded.softMask);
+            target.setItem(COSName.SMASK, softMask);
+        }
+        OutputStream out = target.createRawOutputStream();
+        try {
+            out.write(encoded.data);
+        } finally {
+            out.close();
+        }
+    }
+
+    private PDImageXObject toImage(PDDocument doc, float maxDpi) throws IOException {
+        int w = (maxDpi > 0) ? pixels(maxWidth, maxDpi, pixelWidth) : pixelWidth;
+        int h = (maxDpi > 0) ? pixels(maxHeight, maxDpi, pixelHeight) : pixelHeight;
+        boolean shrink = (w < pixelWidth) || (h < pixelHeight);
+        BufferedImage bufferedImage = this.bufferedImage;
+        RawJpeg rawJpeg = this.rawJpeg;
+        RawPng rawPng = this.rawPng;
+        if (lazy != null) {
+            // Only kept until this method returns.
+            byte[] bytes = lazy.read();
+            if (jpeg) {
+                try {
+                    rawJpeg = RawJpeg.of(bytes);
+                } catch (IllegalArgumentException iae) {
+                    // Not a JPEG a PDF can contain as-is (or not a JPEG at all).
+                    bufferedImage = decode(bytes);
+                }
+            } else {
+                try {
+                    rawPng = RawPng.of(bytes);
+                } catch (IllegalArgumentException iae) {
+                    // Not a PNG at all: ImageIO read its header, so let it read the rest.
+                    rawPng = null;
+                }
+                if (rawPng == null) {
+                    bufferedImage = decode(bytes);
+                }
+            }
+        }
+        PDImageXObject real;
+        if (bufferedImage != null) {
+            BufferedImage bi = shrink ? ImageScaler.scale(bufferedImage, w, h) : bufferedImage;
+            real = jpeg ? JPEGFactory.createFromImage(doc, bi)
+                        : LosslessFactory.createFromImage(doc, bi);
+        } else if (rawJpeg != null) {
+            BufferedImage decoded = shrink ? rawJpeg.decode() : null;
+            real = (decoded == null)
+                   ? rawJpeg.toImage(doc)
+                   : JPEGFactory.createFromImage(doc, ImageScaler.scale(decoded, w, h));
+        } else {
+            real = shrink ? RawPng.of(ImageScaler.scale(rawPng.decode(), w, h)).toImage(doc)
+                          : rawPng.toImage(doc);
+        }
+        return real;
+    }
+
+    private BufferedImage decode(byte[] bytes) throws IOException {
+        BufferedImage bi = ImageIO.read(new ByteArrayInputStream(bytes));
+        // ImageIO read the header when this was made, so the file must have changed since.
+        if ( (bi == null) || (bi.getWidth() != pixelWidth) || (bi.getHeight() != pixelHeight) ) {
+            throw new IOException("Image changed since it was drawn: " + lazy);
+        }
+        return bi;
+    }
+
+    @Override public String toString() {
+        return "DeferredImage(" + pixelWidth + "x" + pixelHeight + " drawn at most " + maxWidth +
+               "x" + maxHeight + ")";
+    }
+}
@@ -0,0 +1,256 @@
+// Copyright 2026-10-15 PlanBase Inc. & Glen Peterson
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.planbase.pdf.layoutmanager;
+
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.graphics.form.PDFormXObject;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.apache.pdfbox.pdmodel.interactive.annotation.PDAppearanceStream;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ <p>The drawing operations for a page, in the order described by PdfItem: ascending by z-index,
+ then by the order they were added.  Instead of sorting, operations go
+ into one append-only bucket per z-index, and the buckets are drawn in z order.  Nearly everything
+ is at the default z-index and the rest at one or two others, so adding an operation is usually
+ just appending to the same bucket as the last one.</p>
+
+ <p>Operations aren't objects.  Each bucket keeps an opcode per operation in a byte[], all the
+ coordinates in one float[], and the style (or image) of each operation as an int id from the
+ document's StyleTable.  Only text strings are stored as references.  A
+ table-heavy page of tens of thousands of operations takes a small fraction of the heap that
+ one object per operation did, in a handful of arrays the garbage collector can skip over.
+ Not thread-safe.</p>
+ */
+final class DisplayList {
+    // Opcode      floats        style id         object
+    // FILL_RECT   x, y, w, h    Color            -
+    // LINE        x1, y1, x2, y2 LineStyle       -
+    // TEXT        x, y          TextStyle        String
+    // IMAGE       x, y, w, h    PDImageXObject   -
+    // FORM        x, y          PDFormXObject    -
+    private static final byte FILL_RECT = 0;
+    private static final byte LINE = 1;
+    private static final byte TEXT = 2;
+    private static final byte IMAGE = 3;
+    private static final byte FORM = 4;
+
+    private static final class Bucket {
+        final float z;
+        byte[] ops = new byte[32];
+        int[] styleIds = new int[32];
+        int numOps = 0;
+        float[] floats = new float[128];
+        int numFloats = 0;
+        Object[] objs = new Object[32];
+        int numObjs = 0;
+
+        Bucket(float zIndex) { z = zIndex; }
+
+        void op(byte op, int styleId) {
+            if (numOps == ops.length) {
+                ops = Arrays.copyOf(ops, numOps * 2);
+                styleIds = Arrays.copyOf(styleIds, numOps * 2);
+            }
+            ops[numOps] = op;
+            styleIds[numOps] = styleId;
+            numOps++;
+        }
+
+        void floats(float a, float b) {
+            if (numFloats + 2 > floats.length) {
+                floats = Arrays.copyOf(floats, floats.length * 2);
+            }
+            floats[numFloats++] = a;
+            floats[numFloats++] = b;
+        }
+
+        void obj(Object o) {
+            if (numObjs == objs.length) {
+                objs = Arrays.copyOf(objs, numObjs * 2);
+            }
+            objs[numObjs++] = o;
+        }
+    }
+
+    private final StyleTable styles;
+
+    // In ascending z order.
+    private Bucket[] buckets = new Bucket[2];
+    private int numBuckets = 0;
+    // The bucket the last operation went into.
+    private Bucket lastBucket = null;
+
+    DisplayList(StyleTable s) { styles = s; }
+
+    void fillRect(float x, float y, float w, float h, Color c, float z) {
+        Bucket b = bucket(z);
+        b.op(FILL_RECT, styles.id(c));
+        b.floats(x, y);
+        b.floats(w, h);
+    }
+
+    void drawLine(float x1, float y1, float x2, float y2, LineStyle ls, float z) {
+        Bucket b = bucket(z);
+        b.op(LINE, styles.id(ls));
+        b.floats(x1, y1);
+        b.floats(x2, y2);
+    }
+
+    void drawText(float x, float y, String text, TextStyle ts, float z) {
+        Bucket b = bucket(z);
+        b.op(TEXT, styles.id(ts));
+        b.floats(x, y);
+        b.obj(text);
+    }
+
+    void drawImage(float x, float y, PDImageXObject img, XyDim dim, float z) {
+        Bucket b = bucket(z);
+        b.op(IMAGE, styles.id(img));
+        b.floats(x, y);
+        b.floats(dim.x(), dim.y());
+    }
+
+    /** Draws a Form XObject with its origin at the given point. */
+    void drawForm(float x, float y, PDFormXObject form, float z) {
+        Bucket b = bucket(z);
+        b.op(FORM, styles.id(form));
+        b.floats(x, y);
+    }
+
+    /** Returns the bucket for this z-index, adding one if there isn't one already. */
+    private Bucket bucket(float z) {
+        // -0 and 0 are the same z-index.
+        if (z == 0f) { z = 0f; }
+        if ( (lastBucket != null) && (lastBucket.z == z) ) { return lastBucket; }
+
+        int lo = 0;
+        int hi = numBuckets - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            float midZ = buckets[mid].z;
+            if (midZ < z) {
+                lo = mid + 1;
+            } else if (midZ > z) {
+                hi = mid - 1;
+            } else {
+                lastBucket = buckets[mid];
+                return lastBucket;
+            }
+        }
+        if (numBuckets == buckets.length) {
+            buckets = Arrays.copyOf(buckets, numBuckets * 2);
+        }
+        System.arraycopy(buckets, lo, buckets, lo + 1, numBuckets - lo);
+        lastBucket = new Bucket(z);
+        buckets[lo] = lastBucket;
+        numBuckets++;
+        return lastBucket;
+    }
+
+    /** The number of drawing operations. */
+    int size() {
+        int size = 0;
+        for (int i = 0; i < numBuckets; i++) { size += buckets[i].numOps; }
+        return size;
+    }
+
+    /** The number of different z-indexes in use. */
+    int numZIndexes() { return numBuckets; }
+
+    /** The i-th z-index in use, from back to front. */
+    float zIndex(int i) { return buckets[i].z; }
+
+    /**
+     Draws everything at z-indexes from the first (inclusive) to the last (exclusive) into a new
+     Form XObject in the given document.
+     @param bbox the part of the form's coordinate space to show.  Anything outside it is clipped.
+     */
+    PDFormXObject toForm(PDDocument doc, PDRectangle bbox, int firstZIndex, int lastZIndex)
+            throws IOException {
+        // PDPageContentStream only writes to pages and appearance streams, but an appearance
+        // stream is just a Form XObject.
+        PDAppearanceStream form = new PDAppearanceStream(doc);
+        form.setBBox(bbox);
+        form.setResources(new PDResources());
+        PDPageContentStream stream =
+                new PDPageContentStream(doc, form,
+                                        form.getCOSObject().createOutputStream(COSName.FLATE_DECODE));
+        try {
+            // The form starts with whatever state the page is in when it's drawn, so don't
+            // assume anything about it.
+            GraphicsState gs = GraphicsState.of(stream);
+            for (int i = firstZIndex; i < lastZIndex; i++) {
+                commitZIndex(i, gs);
+            }
+            gs.endText();
+        } finally {
+            stream.close();
+        }
+        return form;
+    }
+
+    /** Draws everything, from back to front. */
+    void commit(GraphicsState gs) throws IOException {
+        for (int i = 0; i < numBuckets; i++) {
+            commitZIndex(i, gs);
+        }
+    }
+
+    /** Draws everything at the i-th z-index, in the order it was added. */
+    void commitZIndex(int i, GraphicsState gs) throws IOException {
+        Bucket b = buckets[i];
+        final float[] f = b.floats;
+        int fi = 0;
+        int oi = 0;
+        for (int op = 0; op < b.numOps; op++) {
+            switch (b.ops[op]) {
+                case FILL_RECT:
+                    gs.fillRect(f[fi], f[fi + 1], f[fi + 2], f[fi + 3],
+                                (Color) styles.get(b.styleIds[op]));
+                    fi += 4;
+                    break;
+                case LINE:
+                    gs.drawLine(f[fi], f[fi + 1], f[fi + 2], f[fi + 3],
+                                (LineStyle) styles.get(b.styleIds[op]));
+                    fi += 4;
+                    break;
+                case TEXT:
+                    gs.showText(f[fi], f[fi + 1], (String) b.objs[oi++],
+                                (TextStyle) styles.get(b.styleIds[op]));
+                    fi += 2;
+                    break;
+                case IMAGE:
+                    gs.drawImage((PDImageXObject) styles.get(b.styleIds[op]), f[fi], f[fi + 1],
+                                 f[fi + 2], f[fi + 3]);
+                    fi += 4;
+                    break;
+                case FORM:
+                    gs.drawForm((PDFormXObject) styles.get(b.styleIds[op]), f[fi], f[fi + 1]);
+                    fi += 2;
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown opcode: " + b.ops[op]);
+            }
+        }
+    }
+}
@@ -0,0 +1,226 @@
+// Copyright 2026-10-15 PlanBase Inc. & Glen Peterson
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.planbase.pdf.layoutmanager;
+
+import org.apache.pdfbox.io.MemoryUsageSetting;
+
+import java.util.concurrent.Executor;
+import java.util.zip.Deflater;
+
+/**
+ <p>Document-wide settings for how a PdfLayoutMgr builds its PDF, as opposed to how anything on the
+ page looks.  The defaults match what PdfLayoutMgr has always done.  Immutable.</p>
+
+ <p>Where PDFBox keeps the document's streams (page contents, images, fonts) until it's saved is
+ a PDFBox MemoryUsageSetting:</p>
+ <ul>
+ <li>{@code MemoryUsageSetting.setupMainMemoryOnly()} - all on the heap (the default)</li>
+ <li>{@code MemoryUsageSetting.setupMixed(maxHeapBytes)} - on the heap up to the given number of
+ bytes, then in a temporary scratch file</li>
+ <li>{@code MemoryUsageSetting.setupTempFileOnly()} - all in a temporary scratch file</li>
+ </ul>
+ <p>Call setTempDir() on the MemoryUsageSetting to put the scratch file somewhere other than
+ java.io.tmpdir.  The scratch file is deleted when the document is saved.</p>
+
+ <p>Deflating the page content streams is a large part of the time it takes to make a big
+ document.  Given a compressionExecutor, each page's content is written uncompressed first, then
+ deflated on the executor while the next pages are laid out.  Finished pages are attached to the
+ document in page order, and save() waits for any that are still running.  The executor isn't
+ shut down by PdfLayoutMgr, so one can be shared by many documents.</p>
+
+ <p>Given a pageExecutor, when a logical page that fills more than one physical page is committed,
+ each physical page's content stream is written (and deflated) on the executor, and the finished
+ pages are added to the document in order.  Text in the same font is still encoded one line at
+ a time, because PDFBox fonts aren't thread-safe.  The same executor can be used for both, but
+ commit() waits for its pages, so don't call commit() from one of the executor's own threads.</p>
+
+ <p>Given a maxImageDpi, images aren't embedded until save(), when each one is shrunk (by
+ averaging, so it doesn't alias) to that many pixels per inch at the largest size it was drawn.
+ A 4000-pixel camera image drawn as a 100-unit thumbnail at 150 DPI is embedded 209 pixels wide.
+ Images that are already small enough, and JPEGs that ImageIO can't decode, are embedded as they
+ are.  Save time and file size both go down with the number of pixels.  Don't change a
+ BufferedImage after drawing it.</p>
+
+ <p>Given an imageExecutor, compressing an image (JPEGFactory or LosslessFactory) starts on the
+ executor when the image is first drawn, and layout goes on with a placeholder.  commit() waits
+ for the images drawn so far.  With a maxImageDpi too, the images are all shrunk and compressed
+ on the executor during save() instead.  Use a bounded pool (e.g.
+ {@code Executors.newFixedThreadPool()}): each image being compressed needs a copy of its pixels
+ in memory.</p>
+
+ <pre><code>PdfLayoutMgr pageMgr =
+         PdfLayoutMgr.of(PDDeviceRGB.INSTANCE, PDRectangle.LETTER,
+                         DocOptions.builder()
+                                   .memoryUsage(MemoryUsageSetting.setupMixed(64 * 1024 * 1024))
+                                   .build());</code></pre>
+ */
+public final class DocOptions {
+    public static final DocOptions DEFAULT =
+            new DocOptions(null, null, Deflater.DEFAULT_COMPRESSION, null, 0, null);
+
+    // Null means PDFBox's default (main memory only).
+    private final MemoryUsageSetting memoryUsage;
+    // Null means deflate on the calling thread.
+    private final Executor compressionExecutor;
+    private final int compressionLevel;
+    // Null means write pages on the thread that commits them.
+    private final Executor pageExecutor;
+    // Zero means embed images with all their pixels.
+    private final float maxImageDpi;
+    // Null means embed images on the thread that draws them (or saves the document).
+    private final Executor imageExecutor;
+
+    private DocOptions(MemoryUsageSetting m, Executor e, int level, Executor pe, float dpi,
+                       Executor ie) {
+        memoryUsage = m; compressionExecutor = e; compressionLevel = level; pageExecutor = pe;
+        maxImageDpi = dpi; imageExecutor = ie;
+    }
+
+    /**
+     Where PDFBox keeps the document's streams until it's saved, or null for PDFBox's default
+     (all on the heap).
+     */
+    public MemoryUsageSetting memoryUsage() { return memoryUsage; }
+
+    /**
+     Whether committed pages are kept in a temporary scratch file instead of on the heap.  Either
+     way, each page's buffered drawing operations are thrown away as soon as it's committed, so
+     with streaming on, a long document only needs enough heap for the largest logical page
+     (plus fonts and the PDF's page tree).  The scratch file is deleted when the document is
+     saved.  Costs some disk I/O.  Same as (and overwritten by) a temp-file-only memoryUsage.
+     */
+    public boolean streaming() { return (memoryUsage != null) && !memoryUsage.useMainMemory(); }
+
+    /** Where page content streams are deflated, or null for the thread that commits the page. */
+    public Executor compressionExecutor() { return compressionExecutor; }
+
+    /**
+     The java.util.zip.Deflater level (0-9) for page content streams, or
+     Deflater.DEFAULT_COMPRESSION (-1).
+     */
+    public int compressionLevel() { return compressionLevel; }
+
+    /**
+     Where the pages of a multi-page logical page are written, or null for the thread that commits
+     the logical page.
+     */
+    public Executor pageExecutor() { return pageExecutor; }
+
+    /**
+     The most pixels per inch an image is embedded with, at the largest size it's drawn in the
+     document, or 0 to always embed every pixel.
+     */
+    public float maxImageDpi() { return maxImageDpi; }
+
+    /** Where images are compressed and embedded, or null for the thread that draws them. */
+    public Executor imageExecutor() { return imageExecutor; }
+
+    /** Whether PdfLayoutMgr deflates page content itself instead of leaving it to PDFBox. */
+    boolean deflatesContent() {
+        return (compressionExecutor != null) || (compressionLevel != Deflater.DEFAULT_COMPRESSION);
+    }
+
+    public DocOptions streaming(boolean s) { return new Builder(this).streaming(s).build(); }
+    public DocOptions memoryUsage(MemoryUsageSetting m) {
+        return new Builder(this).memoryUsage(m).build();
+    }
+    public DocOptions compressionExecutor(Executor e) {
+        return new Builder(this).compressionExecutor(e).build();
+    }
+    public DocOptions compressionLevel(int level) {
+        return new Builder(this).compressionLevel(level).build();
+    }
+    public DocOptions pageExecutor(Executor e) { return new Builder(this).pageExecutor(e).build(); }
+    public DocOptions maxImageDpi(float dpi) { return new Builder(this).maxImageDpi(dpi).build(); }
+    public DocOptions imageExecutor(Executor e) {
+        return new Builder(this).imageExecutor(e).build();
+    }
+
+    public static Builder builder() { return new Builder(); }
+
+    @Override
+    public String toString() {
+        return "DocOptions(memoryUsage=" + ((memoryUsage == null) ? "default" : memoryUsage) +
+               " compressionExecutor=" + compressionExecutor +
+               " compressionLevel=" + compressionLevel +
+               " pageExecutor=" + pageExecutor +
+               " maxImageDpi=" + maxImageDpi +
+               " imageExecutor=" + imageExecutor + ")";
+    }
+
+    /**
+     A mutable Builder for immutable DocOptions.
+     */
+    public static class Builder {
+        private MemoryUsageSetting memoryUsage = DEFAULT.memoryUsage;
+        private Executor compressionExecutor = DEFAULT.compressionExecutor;
+        private int compressionLevel = DEFAULT.compressionLevel;
+        private Executor pageExecutor = DEFAULT.pageExecutor;
+        private float maxImageDpi = DEFAULT.maxImageDpi;
+        private Executor imageExecutor = DEFAULT.imageExecutor;
+
+        private Builder() {}
+
+        private Builder(DocOptions d) {
+            memoryUsage = d.memoryUsage; compressionExecutor = d.compressionExecutor;
+            compressionLevel = d.compressionLevel; pageExecutor = d.pageExecutor;
+            maxImageDpi = d.maxImageDpi; imageExecutor = d.imageExecutor;
+        }
+
+        public DocOptions build() {
+            if ( (memoryUsage == DEFAULT.memoryUsage) &&
+                 (compressionExecutor == DEFAULT.compressionExecutor) &&
+                 (compressionLevel == DEFAULT.compressionLevel) &&
+                 (pageExecutor == DEFAULT.pageExecutor) &&
+                 (maxImageDpi == DEFAULT.maxImageDpi) &&
+                 (imageExecutor == DEFAULT.imageExecutor) ) {
+                return DEFAULT;
+            }
+            return new DocOptions(memoryUsage, compressionExecutor, compressionLevel, pageExecutor,
+                                  maxImageDpi, imageExecutor);
+        }
+
+        /** Shorthand for memoryUsage(MemoryUsageSetting.setupTempFileOnly()) or the default. */
+        public Builder streaming(boolean s) {
+            memoryUsage = s ? MemoryUsageSetting.setupTempFileOnly() : null;
+            return this;
+        }
+
+        public Builder memoryUsage(MemoryUsageSetting m) { memoryUsage = m; return this; }
+        public Builder compressionExecutor(Executor e) { compressionExecutor = e; return this; }
+        public Builder pageExecutor(Executor e) { pageExecutor = e; return this; }
+        public Builder imageExecutor(Executor e) { imageExecutor = e; return this; }
+
+        public Builder compressionLevel(int level) {
+            if ( (level < Deflater.DEFAULT_COMPRESSION) || (level > Deflater.BEST_COMPRESSION) ) {
+                throw new IllegalArgumentException("Compression level must be from " +
+                                                   Deflater.DEFAULT_COMPRESSION + " to " +
+                                                   Deflater.BEST_COMPRESSION + ", not " + level);
+            }
+            compressionLevel = level;
+            return this;
+        }
+
+        /** Zero (the default) embeds every pixel of every image. */
+        public Builder maxImageDpi(float dpi) {
+            if ( !(dpi >= 0) || Float.isInfinite(dpi) ) {
+                throw new IllegalArgumentException("maxImageDpi must be zero or positive, not " +
+                                                   dpi);
+            }
+            maxImageDpi = dpi;
+            return this;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+// Copyright 2026-10-15 PlanBase Inc. & Glen Peterson
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.planbase.pdf.layoutmanager;
+
+/**
+ A snapshot of how big a document got and how long it took to save, from
+ {@link PdfLayoutMgr#stats()}.  Useful for choosing {@link DocOptions} for a batch job: if
+ contentStreamBytes() plus your images is most of your heap, stream to a scratch file.  Immutable.
+ */
+public final class DocStats {
+    private final int pages;
+    private final int images;
+    private final long contentStreamBytes;
+    private final long bytesWritten;
+    private final long saveNanos;
+    private final DocOptions options;
+
+    private DocStats(int p, int i, long c, long b, long n, DocOptions o) {
+        pages = p; images = i; contentStreamBytes = c; bytesWritten = b; saveNanos = n; options = o;
+    }
+
+    static DocStats of(int pages, int images, long contentStreamBytes, long bytesWritten,
+                       long saveNanos, DocOptions options) {
+        return new DocStats(pages, images, contentStreamBytes, bytesWritten, saveNanos, options);
+    }
+
+    /** The number of physical pages committed so far. */
+    public int pages() { return pages; }
+
+    /**
+     The number of images embedded in the document.  An image drawn many times, or decoded into
+     many BufferedImages with the same pixels, is only embedded once.
+     */
+    public int images() { return images; }
+
+    /**
+     The total size of the committed pages' (compressed) content streams, in bytes.  Pages still
+     being deflated on a compressionExecutor are counted once they're done.
+     */
+    public long contentStreamBytes() { return contentStreamBytes; }
+
+    /** The size of the saved PDF in bytes, or zero if it hasn't been saved yet. */
+    public long bytesWritten() { return bytesWritten; }
+
+    /** How long save() took, in nanoseconds, or zero if it hasn't been saved yet. */
+    public long saveNanos() { return saveNanos; }
+
+    /** The options the document was made with (including where PDFBox kept its streams). */
+    public DocOptions options() { return options; }
+
+    @Override
+    public String toString() {
+        return "DocStats(pages=" + pages + " images=" + images +
+               " contentStreamBytes=" + contentStreamBytes +
+               " bytesWritten=" + bytesWritten + " saveNanos=" + saveNanos + " " + options + ")";
+    }
+}
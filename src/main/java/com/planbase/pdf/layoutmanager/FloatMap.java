@@ -0,0 +1,75 @@
+// Copyright 2026-10-15 PlanBase Inc. & Glen Peterson
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.planbase.pdf.layoutmanager;
+
+import java.util.Arrays;
+
+/**
+ A tiny map from float widths to the layout calculated at that width.  Almost everything is only
+ ever measured at one width, so the first entry is kept in fields of its own and anything more goes
+ in small parallel arrays.  Keys are compared by Float.floatToIntBits(), just like
+ HashMap&lt;Float,V&gt; does, but without boxing or hashing, so lookups don't allocate anything.
+ Null values are not allowed.  Not thread-safe.
+ */
+final class FloatMap<V> {
+    private int firstKey;
+    // Null when the map is empty.
+    private V firstValue;
+
+    // The rest of the entries, if any.
+    private int[] keys;
+    private Object[] values;
+    private int numMore = 0;
+
+    /** Returns the value for this key, or null if there isn't one. */
+    @SuppressWarnings("unchecked")
+    V get(float key) {
+        int bits = Float.floatToIntBits(key);
+        if ( (firstValue != null) && (firstKey == bits) ) { return firstValue; }
+        for (int i = 0; i < numMore; i++) {
+            if (keys[i] == bits) { return (V) values[i]; }
+        }
+        return null;
+    }
+
+    /** Associates the value with the key, replacing any value it had before. */
+    void put(float key, V value) {
+        if (value == null) { throw new IllegalArgumentException("Value must not be null"); }
+        int bits = Float.floatToIntBits(key);
+        if ( (firstValue == null) || (firstKey == bits) ) {
+            firstKey = bits;
+            firstValue = value;
+            return;
+        }
+        for (int i = 0; i < numMore; i++) {
+            if (keys[i] == bits) {
+                values[i] = value;
+                return;
+            }
+        }
+        if (keys == null) {
+            keys = new int[2];
+            values = new Object[2];
+        } else if (numMore == keys.length) {
+            keys = Arrays.copyOf(keys, numMore * 2);
+            values = Arrays.copyOf(values, numMore * 2);
+        }
+        keys[numMore] = bits;
+        values[numMore] = value;
+        numMore++;
+    }
+
+    int size() { return (firstValue == null) ? 0 : numMore + 1; }
+}
@@ -0,0 +1,142 @@
+// Copyright 2026-10-15 PlanBase Inc. & Glen Peterson
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.planbase.pdf.layoutmanager;
+
+import org.apache.fontbox.ttf.TTFParser;
+import org.apache.fontbox.ttf.TrueTypeFont;
+import org.apache.pdfbox.pdmodel.font.PDType0Font;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ <p>Parses each TrueType font file once and shares it between documents.
+ {@link PdfLayoutMgr#loadTrueTypeFont(File)} reads and parses the whole font for every document,
+ which can take longer than laying out a small document.  A FontRegistry reads each file into
+ memory and parses it the first time it's asked for, then hands each document a lightweight
+ PDType0Font built on the shared parsed tables.  Character widths are measured once and shared too.  Glyphs
+ are still subset per document when it's saved.  Thread-safe: make one and keep it for the life of
+ your application.</p>
+
+ <pre><code>static final FontRegistry FONTS = FontRegistry.of();
+ ...
+ PDType0Font font = FONTS.load(pageMgr, new File("NotoSansCJK.ttf"));
+ TextStyle ts = TextStyle.of(font, 10f, Color.BLACK);</code></pre>
+
+ <p>parses() and parseNanos() measure the cold (first-time) cost.  documentLoads() and
+ documentLoadNanos() measure the warm cost each document pays.</p>
+ */
+public final class FontRegistry {
+    private static class Entry {
+        // Fontbox reads some tables lazily.  TrueTypeFont synchronizes that itself, but we also
+        // hold its lock while building a document's font from it.
+        TrueTypeFont ttf;
+        // Measured from the first document's font, then shared with every later one.
+        FontWidths widths;
+    }
+
+    // Keyed by canonical path.
+    private final Map<String,Entry> entries = new HashMap<String,Entry>();
+
+    private final AtomicLong parses = new AtomicLong();
+    private final AtomicLong parseNanos = new AtomicLong();
+    private final AtomicLong documentLoads = new AtomicLong();
+    private final AtomicLong documentLoadNanos = new AtomicLong();
+
+    private FontRegistry() {}
+
+    /** Returns a new, empty FontRegistry. */
+    public static FontRegistry of() { return new FontRegistry(); }
+
+    /**
+     Returns the given TrueType font for use in one document, parsing the file only if this
+     registry hasn't seen it before.  Only the glyphs the document uses are embedded in it.
+     @param mgr the document the font is for.  Don't use the returned font with any other.
+     @param ttf a TrueType (.ttf) font file
+     @return the font, to pass to TextStyle.of()
+     */
+    public PDType0Font load(PdfLayoutMgr mgr, File ttf) throws IOException {
+        final long start = System.nanoTime();
+        Entry entry = entry(ttf);
+        PDType0Font font;
+        synchronized (entry) {
+            if (entry.ttf == null) {
+                entry.ttf = parse(ttf);
+                parses.incrementAndGet();
+                parseNanos.addAndGet(System.nanoTime() - start);
+            }
+            // Subsetting closes the TrueTypeFont when this document is saved.  The shared one
+            // survives that only because it was parsed from memory (see parse()).
+            font = PDType0Font.load(mgr.doc(), entry.ttf, true);
+            if (entry.widths == null) {
+                entry.widths = FontWidths.of(font);
+            } else {
+                FontWidths.share(font, entry.widths);
+            }
+        }
+        documentLoads.incrementAndGet();
+        documentLoadNanos.addAndGet(System.nanoTime() - start);
+        return font;
+    }
+
+    private Entry entry(File ttf) throws IOException {
+        String key = ttf.getCanonicalPath();
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                entry = new Entry();
+                entries.put(key, entry);
+            }
+            return entry;
+        }
+    }
+
+    /**
+     Parses from a stream, so Fontbox copies the whole file into a MemoryTTFDataStream, whose close()
+     does nothing.  TTFParser.parse(File) would read from a RandomAccessFile instead, and the first
+     document to subset the font would close it for every other one.
+     */
+    private static TrueTypeFont parse(File ttf) throws IOException {
+        InputStream in = new FileInputStream(ttf);
+        try {
+            return new TTFParser().parse(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /** How many font files this registry has parsed. */
+    public long parses() { return parses.get(); }
+
+    /** Total time spent reading and parsing font files, in nanoseconds. */
+    public long parseNanos() { return parseNanos.get(); }
+
+    /** How many per-document fonts this registry has handed out (including the first of each). */
+    public long documentLoads() { return documentLoads.get(); }
+
+    /** Total time spent in {@link #load(PdfLayoutMgr, File)}, in nanoseconds. */
+    public long documentLoadNanos() { return documentLoadNanos.get(); }
+
+    @Override
+    public String toString() {
+        return "FontRegistry(parses=" + parses + " parseNanos=" + parseNanos +
+               " documentLoads=" + documentLoads + " documentLoadNanos=" + documentLoadNanos + ")";
+    }
+}
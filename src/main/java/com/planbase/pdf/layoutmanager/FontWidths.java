@@ -0,0 +1,153 @@
+// Copyright 2026-10-15 PlanBase Inc. & Glen Peterson
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.planbase.pdf.layoutmanager;
+
+import org.apache.pdfbox.pdmodel.font.PDFont;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ Character widths for one font in unscaled font units (what PDFont.getStringWidth() reports),
+ measured once and shared by every TextStyle that uses that font.  Characters 0-255 (the
+ WinAnsi-compatible range that almost all of our text falls into) are measured up front and
+ looked up in a primitive array.  Other characters in the Basic Multilingual Plane (e.g. CJK in an
+ embedded TrueType font) are measured the first time they're seen and kept in pages of 256 which
+ are only created when needed.  Characters outside the BMP, or anything the font can't encode, are
+ passed on to the font so that it behaves exactly as it did before (including throwing the same
+ exceptions).  Thread-safe.
+ */
+final class FontWidths {
+    // Weak keys so that fonts loaded for a single document can be garbage collected along with
+    // it.  The values must not refer to their fonts or they would never be released.
+    private static final Map<PDFont,FontWidths> widthsByFont =
+            Collections.synchronizedMap(new WeakHashMap<PDFont,FontWidths>());
+
+    // NaN means "ask the font" (e.g. a control character that isn't in the encoding).
+    private final float[] latin1 = new float[256];
+
+    // Widths of characters above 255 by high byte, then low byte.  A null page or a NaN entry
+    // hasn't been measured (or can't be).  Guarded by itself.
+    private final float[][] pages = new float[256][];
+
+    private FontWidths(PDFont font) {
+        for (int c = 0; c < latin1.length; c++) {
+            float w;
+            try {
+                w = font.getStringWidth(String.valueOf((char) c));
+            } catch (IOException ioe) {
+                w = Float.NaN;
+            } catch (IllegalArgumentException iae) {
+                // Not in this font's encoding.
+                w = Float.NaN;
+            }
+            latin1[c] = w;
+        }
+    }
+
+    /** Returns the shared widths for the given font, measuring them the first time it's seen. */
+    static FontWidths of(PDFont font) {
+        FontWidths fw = widthsByFont.get(font);
+        if (fw == null) {
+            // Two threads could both measure the same font here.  That's harmless since they
+            // come up with the same numbers and one of them wins.
+            fw = new FontWidths(font);
+            widthsByFont.put(font, fw);
+        }
+        return fw;
+    }
+
+    /**
+     Makes the given font use widths already measured from another font with exactly the same
+     metrics (e.g. the same TrueType file loaded into another document).
+     */
+    static void share(PDFont font, FontWidths fw) {
+        synchronized (widthsByFont) {
+            if (!widthsByFont.containsKey(font)) {
+                widthsByFont.put(font, fw);
+            }
+        }
+    }
+
+    /**
+     The width of one code point in unscaled font units.
+     @param font the font these widths were created from.
+     @param text the text containing the code point
+     @param idx the index of the code point within text
+     */
+    float codePointWidth(PDFont font, String text, int idx) throws IOException {
+        char c = text.charAt(idx);
+        if (c < latin1.length) {
+            float w = latin1[c];
+            if (w == w) { return w; } // Not NaN
+        } else if ( (c < Character.MIN_SURROGATE) || (c > Character.MAX_SURROGATE) ) {
+            float w = pageWidth(c);
+            if (w == w) { return w; } // Not NaN
+            // If the font can't encode it, this throws and we'll ask again next time.
+            w = font.getStringWidth(String.valueOf(c));
+            cachePageWidth(c, w);
+            return w;
+        }
+        return font.getStringWidth(text.substring(idx, idx + Character.charCount(text.codePointAt(idx))));
+    }
+
+    private float pageWidth(char c) {
+        synchronized (pages) {
+            float[] page = pages[c >>> 8];
+            return (page == null) ? Float.NaN : page[c & 0xff];
+        }
+    }
+
+    private void cachePageWidth(char c, float w) {
+        synchronized (pages) {
+            float[] page = pages[c >>> 8];
+            if (page == null) {
+                page = new float[256];
+                Arrays.fill(page, Float.NaN);
+                pages[c >>> 8] = page;
+            }
+            page[c & 0xff] = w;
+        }
+    }
+
+    /**
+     The width of the string in unscaled font units.  Widths are added up in the same order
+     PDFBox does, so this is exactly what font.getStringWidth(text) would return.
+     @param font the font these widths were created from.
+     @param text the text to measure
+     */
+    float stringWidth(PDFont font, String text) throws IOException {
+        final int len = text.length();
+        float width = 0;
+        int i = 0;
+        while (i < len) {
+            char c = text.charAt(i);
+            if (c < latin1.length) {
+                float w = latin1[c];
+                if (w == w) { // Not NaN
+                    width += w;
+                    i++;
+                    continue;
+                }
+            }
+            width += codePointWidth(font, text, i);
+            i += Character.charCount(text.codePointAt(i));
+        }
+        return width;
+    }
+}
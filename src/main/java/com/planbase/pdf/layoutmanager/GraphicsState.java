@@ -0,0 +1,211 @@
+// Copyright 2026-10-15 PlanBase Inc. & Glen Peterson
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.planbase.pdf.layoutmanager;
+
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.graphics.form.PDFormXObject;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.apache.pdfbox.util.Matrix;
+
+import java.awt.Color;
+import java.io.IOException;
+
+/**
+ <p>Draws to a page's content stream, remembering the colors, line width, and font it has
+ already set so that it only writes those operators when they actually change.  On pages full of
+ table cells in the same style, those repeated operators were most of the content stream.  One
+ per content stream, and only as long as nothing else writes to that stream.  Not thread-safe,
+ but pages can each have their own on different threads if they're made with
+ {@link #concurrent(PDPageContentStream, Object)}.</p>
+
+ <p>Consecutive lines of text also share a single text object (BT ... ET), each line positioned
+ relative to the one before.  A line directly below the previous one by the current leading is
+ just T*.  The text object is closed before anything else is drawn, and must be closed with
+ {@link #endText()} when the page is done.</p>
+ */
+final class GraphicsState {
+    private final PDPageContentStream stream;
+    // Null unless other pages in this document are being written on other threads.  Then setting
+    // a font locks this (PDFBox adds fonts to the document's set of fonts to subset), and writing
+    // text locks its font (fonts cache their encodings and remember their subsets).
+    private final Object docLock;
+
+    // Null (or NaN) means unknown, so the next value is always written.
+    private Color strokingColor = null;
+    private Color nonStrokingColor = null;
+    private float lineWidth = Float.NaN;
+    private PDFont font = null;
+    private float fontSize = Float.NaN;
+    // The leading (TL) for T*.  Part of the graphics state, so it lasts between text objects.
+    private float leading = Float.NaN;
+
+    // Whether we're inside a text object, and if so, where the current line starts and how far
+    // down from the line before it was.  That's the sum of the offsets we've written, except that
+    // a T* moves down by the leading, not by the dy that was asked for.  PDFBox rounds what it
+    // writes to 5 decimal places, so the viewer's position can differ from these by that much
+    // for each line.
+    private boolean inText = false;
+    private float lineX;
+    private float lineY;
+    private float lastDy;
+
+    // Close enough to the leading to use T* instead of Td.  PDFBox writes 5 decimal places, so this
+    // is as close as Td would have put it anyway.
+    private static final float LEADING_EPSILON = 0.00001f;
+
+    private GraphicsState(PDPageContentStream s, Object l) { stream = s; docLock = l; }
+
+    /** Returns a tracker for the given stream, which doesn't assume anything about its state. */
+    static GraphicsState of(PDPageContentStream s) { return new GraphicsState(s, null); }
+
+    /**
+     Returns a tracker for a stream that's written while other pages of the same document are
+     written on other threads.
+     @param docLock the same object for every page in the document
+     */
+    static GraphicsState concurrent(PDPageContentStream s, Object docLock) {
+        return new GraphicsState(s, docLock);
+    }
+
+    void strokingColor(Color c) throws IOException {
+        if (!c.equals(strokingColor)) {
+            stream.setStrokingColor(c);
+            strokingColor = c;
+        }
+    }
+
+    void nonStrokingColor(Color c) throws IOException {
+        if (!c.equals(nonStrokingColor)) {
+            stream.setNonStrokingColor(c);
+            nonStrokingColor = c;
+        }
+    }
+
+    void lineWidth(float w) throws IOException {
+        if (w != lineWidth) {
+            stream.setLineWidth(w);
+            lineWidth = w;
+        }
+    }
+
+    void font(PDFont f, float size) throws IOException {
+        if ( (f != font) || (size != fontSize) ) {
+            if (docLock == null) {
+                stream.setFont(f, size);
+            } else {
+                synchronized (docLock) { stream.setFont(f, size); }
+            }
+            font = f;
+            fontSize = size;
+        }
+    }
+
+    /** Closes the current text object, if there is one. */
+    void endText() throws IOException {
+        if (inText) {
+            stream.endText();
+            inText = false;
+        }
+    }
+
+    void fillRect(float x, float y, float width, float height, Color c) throws IOException {
+        endText();
+        nonStrokingColor(c);
+        stream.addRect(x, y, width, height);
+        stream.fill();
+    }
+
+    void drawLine(float x1, float y1, float x2, float y2, LineStyle ls) throws IOException {
+        endText();
+        strokingColor(ls.color());
+        lineWidth(ls.width());
+        stream.moveTo(x1, y1);
+        stream.lineTo(x2, y2);
+        stream.stroke();
+    }
+
+    void showText(float x, float y, String text, TextStyle ts) throws IOException {
+        if (!inText) {
+            stream.beginText();
+            inText = true;
+            // Each text object starts at the origin.
+            lineX = 0;
+            lineY = 0;
+            lastDy = Float.NaN;
+        }
+        nonStrokingColor(ts.textColor());
+        font(ts.font(), ts.fontSize());
+        moveToLine(x, y);
+        if (docLock == null) {
+            stream.showText(text);
+        } else {
+            synchronized (font) { stream.showText(text); }
+        }
+    }
+
+    /** Starts a new line of text at the given (absolute) position. */
+    private void moveToLine(float x, float y) throws IOException {
+        float dx = x - lineX;
+        float dy = y - lineY;
+        if ( (dx == 0) && (dy < 0) ) {
+            if (Math.abs(dy + leading) < LEADING_EPSILON) {
+                stream.newLine();
+                dy = -leading;
+            } else if (Math.abs(dy - lastDy) < LEADING_EPSILON) {
+                // Two lines in a row the same distance apart.  Maybe there will be more.
+                leading = -dy;
+                stream.setLeading(leading);
+                stream.newLine();
+            } else {
+                stream.newLineAtOffset(dx, dy);
+            }
+        } else {
+            stream.newLineAtOffset(dx, dy);
+        }
+        lineX += dx;
+        lineY += dy;
+        lastDy = dy;
+    }
+
+    /**
+     Draws a Form XObject.  Nothing the form does to the graphics state lasts past the Do operator,
+     so what we know about the state is still true afterward.
+     */
+    void drawForm(PDFormXObject form) throws IOException {
+        endText();
+        stream.drawForm(form);
+    }
+
+    /** Draws a Form XObject with its origin moved to the given point. */
+    void drawForm(PDFormXObject form, float x, float y) throws IOException {
+        if ( (x == 0) && (y == 0) ) {
+            drawForm(form);
+            return;
+        }
+        endText();
+        // Restoring the graphics state only undoes the cm.  We haven't changed anything else.
+        stream.saveGraphicsState();
+        stream.transform(Matrix.getTranslateInstance(x, y));
+        stream.drawForm(form);
+        stream.restoreGraphicsState();
+    }
+
+    void drawImage(PDImageXObject img, float x, float y, float width, float height)
+            throws IOException {
+        endText();
+        stream.drawImage(img, x, y, width, height);
+    }
+}
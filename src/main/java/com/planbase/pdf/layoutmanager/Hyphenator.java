@@ -0,0 +1,360 @@
+// Copyright 2026-10-15 PlanBase Inc. & Glen Peterson
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.planbase.pdf.layoutmanager;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ <p>Finds the places a word can be hyphenated using Liang's pattern algorithm (the one TeX uses).
+ Patterns are read in the TeX format (a \patterns{...} block and an optional \hyphenation{...}
+ block of exceptions) and compiled once into a compact trie.  The hyphenation points for each word
+ are kept in a bounded cache, since the same words tend to come up over and over in a document.
+ Thread-safe.</p>
+
+ <p>No real language's patterns ship with this library.  Load them (for US English, hyph-en-us.tex
+ from the hyph-utf8 project) once, and set the Hyphenator on a TextStyle to hyphenate Text:</p>
+ <pre><code>static final Hyphenator US_ENGLISH =
+         Hyphenator.of(MyApp.class.getResourceAsStream("hyph-en-us.tex"));
+ ...
+ TextStyle ts = TextStyle.of(PDType1Font.HELVETICA, 9.5f, Color.BLACK)
+                        .hyphenator(US_ENGLISH);</code></pre>
+ */
+public final class Hyphenator {
+    /** Don't leave fewer than this many letters before a hyphen. */
+    public static final int DEFAULT_LEFT_MIN = 2;
+    /** Don't carry fewer than this many letters to the next line. */
+    public static final int DEFAULT_RIGHT_MIN = 3;
+    /** How many words each Hyphenator remembers. */
+    public static final int DEFAULT_CACHE_SIZE = 4096;
+
+    private static final int[] NO_POINTS = new int[0];
+
+    // The compiled trie.  The children of node n are edgeChars/edgeTargets[firstEdge[n]] up to (but
+    // not including) firstEdge[n + 1], sorted by character.  If a pattern ends at node n, its values
+    // are values[firstValue[n]] up to firstValue[n + 1].  Node 0 is the root.
+    private final int[] firstEdge;
+    private final char[] edgeChars;
+    private final int[] edgeTargets;
+    private final int[] firstValue;
+    private final byte[] values;
+
+    private final Map<String,int[]> exceptions;
+    private final int leftMin;
+    private final int rightMin;
+
+    // Least-recently-used words fall out when it's full.
+    private final Map<String,int[]> cache;
+
+    private Hyphenator(PatternParser pp, int lm, int rm, final int cacheSize) {
+        leftMin = lm; rightMin = rm; exceptions = pp.exceptions;
+
+        // Number the nodes breadth-first so that each node's children are next to each other.
+        List<Node> nodes = new ArrayList<Node>();
+        nodes.add(pp.root);
+        int numEdges = 0;
+        int numValues = 0;
+        for (int i = 0; i < nodes.size(); i++) {
+            Node node = nodes.get(i);
+            for (Node child : node.children.values()) {
+                child.id = nodes.size();
+                nodes.add(child);
+            }
+            numEdges += node.children.size();
+            if (node.values != null) { numValues += node.values.length; }
+        }
+
+        firstEdge = new int[nodes.size() + 1];
+        edgeChars = new char[numEdges];
+        edgeTargets = new int[numEdges];
+        firstValue = new int[nodes.size() + 1];
+        values = new byte[numValues];
+        int e = 0;
+        int v = 0;
+        for (int i = 0; i < nodes.size(); i++) {
+            Node node = nodes.get(i);
+            firstEdge[i] = e;
+            for (Map.Entry<Character,Node> entry : node.children.entrySet()) {
+                edgeChars[e] = entry.getKey();
+                edgeTargets[e] = entry.getValue().id;
+                e++;
+            }
+            firstValue[i] = v;
+            if (node.values != null) {
+                System.arraycopy(node.values, 0, values, v, node.values.length);
+                v += node.values.length;
+            }
+        }
+        firstEdge[nodes.size()] = e;
+        firstValue[nodes.size()] = v;
+
+        cache = new LinkedHashMap<String,int[]>(64, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String,int[]> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     Reads and compiles hyphenation patterns in TeX format.  The stream is read to the end but not
+     closed.
+     @param patterns UTF-8 text containing a \patterns{...} block and, optionally, a
+     \hyphenation{...} block of exceptions.  Text after a % is a comment.
+     @param leftMin the fewest letters to leave before a hyphen
+     @param rightMin the fewest letters to carry after a hyphen
+     @param cacheSize how many words to remember the hyphenation points of
+     */
+    public static Hyphenator of(InputStream patterns, int leftMin, int rightMin, int cacheSize)
+            throws IOException {
+        if ( (leftMin < 1) || (rightMin < 1) ) {
+            throw new IllegalArgumentException("leftMin and rightMin must be at least 1, not " +
+                                               leftMin + " and " + rightMin);
+        }
+        if (cacheSize < 0) {
+            throw new IllegalArgumentException("cacheSize can't be negative: " + cacheSize);
+        }
+        PatternParser pp = new PatternParser();
+        pp.parse(new BufferedReader(new InputStreamReader(patterns, "UTF-8")));
+        return new Hyphenator(pp, leftMin, rightMin, cacheSize);
+    }
+
+    /** Reads patterns in TeX format with the default leftMin, rightMin, and cache size. */
+    public static Hyphenator of(InputStream patterns) throws IOException {
+        return of(patterns, DEFAULT_LEFT_MIN, DEFAULT_RIGHT_MIN, DEFAULT_CACHE_SIZE);
+    }
+
+    private static class SampleHolder {
+        // Loaded the first time anyone asks for it.
+        private static final Hyphenator INSTANCE = loadResource("hyph-sample.pat");
+    }
+
+    /**
+     A tiny sample of English-like patterns, for trying hyphenation out.  It is not real US English
+     hyphenation: it misses most legal hyphens and gets some wrong.  For real documents, load real
+     patterns with {@link #of(InputStream)}.  Shared by everyone who uses it.
+     */
+    public static Hyphenator sample() { return SampleHolder.INSTANCE; }
+
+    private static Hyphenator loadResource(String name) {
+        InputStream is = Hyphenator.class.getResourceAsStream(name);
+        if (is == null) {
+            throw new IllegalStateException("Missing hyphenation pattern resource: " + name);
+        }
+        try {
+            try {
+                return of(is);
+            } finally {
+                is.close();
+            }
+        } catch (IOException ioe) {
+            throw new IllegalStateException("Couldn't read hyphenation patterns from " + name, ioe);
+        }
+    }
+
+    public int leftMin() { return leftMin; }
+    public int rightMin() { return rightMin; }
+
+    /**
+     Returns the word with a hyphen at every place it could be broken, e.g. "hy-phen-ation".
+     Handy for checking patterns.
+     */
+    public String hyphenate(String word) {
+        int[] points = points(word);
+        StringBuilder sB = new StringBuilder(word.length() + points.length);
+        int prev = 0;
+        for (int point : points) {
+            sB.append(word, prev, point).append('-');
+            prev = point;
+        }
+        return sB.append(word, prev, word.length()).toString();
+    }
+
+    /**
+     The places this word can be hyphenated, in increasing order.  A point p means the hyphen goes
+     after word.substring(0, p).  The word should be letters only (no spaces or punctuation).  The
+     returned array is shared, so don't change it.
+     */
+    int[] points(String word) {
+        if (word.length() < leftMin + rightMin) { return NO_POINTS; }
+        int[] points;
+        synchronized (cache) {
+            points = cache.get(word);
+        }
+        if (points == null) {
+            points = findPoints(word);
+            synchronized (cache) {
+                cache.put(word, points);
+            }
+        }
+        return points;
+    }
+
+    private int[] findPoints(String word) {
+        final int len = word.length();
+        // Patterns are lower case, and periods mark the start and end of the word.
+        char[] chars = new char[len + 2];
+        chars[0] = '.';
+        for (int i = 0; i < len; i++) {
+            chars[i + 1] = Character.toLowerCase(word.charAt(i));
+        }
+        chars[len + 1] = '.';
+
+        int[] exception = exceptions.get(new String(chars, 1, len));
+        if (exception != null) { return trim(exception, len); }
+
+        // scores[i] is the highest value any pattern gives the spot before chars[i].
+        int[] scores = new int[chars.length + 1];
+        for (int start = 0; start < chars.length; start++) {
+            int node = 0;
+            for (int i = start; i < chars.length; i++) {
+                node = child(node, chars[i]);
+                if (node < 0) { break; }
+                for (int v = firstValue[node], pos = start; v < firstValue[node + 1]; v++, pos++) {
+                    if (values[v] > scores[pos]) { scores[pos] = values[v]; }
+                }
+            }
+        }
+
+        // Odd scores allow a hyphen.  The spot before chars[p + 1] is after word.substring(0, p).
+        int count = 0;
+        int[] points = new int[len];
+        for (int p = leftMin; p <= len - rightMin; p++) {
+            if ((scores[p + 1] & 1) == 1) { points[count++] = p; }
+        }
+        return (count == 0) ? NO_POINTS : copyOf(points, count);
+    }
+
+    private int[] trim(int[] exception, int len) {
+        int count = 0;
+        int[] points = new int[exception.length];
+        for (int p : exception) {
+            if ( (p >= leftMin) && (p <= len - rightMin) ) { points[count++] = p; }
+        }
+        return (count == points.length) ? exception : copyOf(points, count);
+    }
+
+    private static int[] copyOf(int[] ints, int len) {
+        int[] ret = new int[len];
+        System.arraycopy(ints, 0, ret, 0, len);
+        return ret;
+    }
+
+    /** Returns the child of the given node along the given character, or -1 if there isn't one. */
+    private int child(int node, char c) {
+        int lo = firstEdge[node];
+        int hi = firstEdge[node + 1] - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            char midChar = edgeChars[mid];
+            if (midChar < c) {
+                lo = mid + 1;
+            } else if (midChar > c) {
+                hi = mid - 1;
+            } else {
+                return edgeTargets[mid];
+            }
+        }
+        return -1;
+    }
+
+    /** A trie node used only while reading patterns. */
+    private static class Node {
+        final Map<Character,Node> children = new TreeMap<Character,Node>();
+        byte[] values;
+        int id;
+    }
+
+    private static class PatternParser {
+        final Node root = new Node();
+        final Map<String,int[]> exceptions = new HashMap<String,int[]>();
+
+        void parse(BufferedReader br) throws IOException {
+            boolean inExceptions = false;
+            String line;
+            while ((line = br.readLine()) != null) {
+                int commentIdx = line.indexOf('%');
+                if (commentIdx >= 0) { line = line.substring(0, commentIdx); }
+                for (String token : line.trim().split("\\s+")) {
+                    if (token.startsWith("\\patterns")) {
+                        inExceptions = false;
+                        token = token.substring("\\patterns".length());
+                    } else if (token.startsWith("\\hyphenation")) {
+                        inExceptions = true;
+                        token = token.substring("\\hyphenation".length());
+                    }
+                    token = token.replace("{", "").replace("}", "");
+                    if (token.length() == 0) { continue; }
+                    if (inExceptions) {
+                        addException(token);
+                    } else {
+                        addPattern(token);
+                    }
+                }
+            }
+        }
+
+        /** Adds a pattern like "hen5at": letters, with an optional digit between any two. */
+        private void addPattern(String pattern) {
+            StringBuilder letters = new StringBuilder();
+            byte[] vals = new byte[pattern.length() + 1];
+            for (int i = 0; i < pattern.length(); i++) {
+                char c = pattern.charAt(i);
+                if ( (c >= '0') && (c <= '9') ) {
+                    vals[letters.length()] = (byte) (c - '0');
+                } else {
+                    letters.append(Character.toLowerCase(c));
+                }
+            }
+            Node node = root;
+            for (int i = 0; i < letters.length(); i++) {
+                Character c = letters.charAt(i);
+                Node child = node.children.get(c);
+                if (child == null) {
+                    child = new Node();
+                    node.children.put(c, child);
+                }
+                node = child;
+            }
+            node.values = new byte[letters.length() + 1];
+            System.arraycopy(vals, 0, node.values, 0, node.values.length);
+        }
+
+        /** Adds an exception like "ta-ble" with its hyphens spelled out. */
+        private void addException(String hyphenated) {
+            StringBuilder letters = new StringBuilder();
+            int[] points = new int[hyphenated.length()];
+            int count = 0;
+            for (int i = 0; i < hyphenated.length(); i++) {
+                char c = hyphenated.charAt(i);
+                if (c == '-') {
+                    points[count++] = letters.length();
+                } else {
+                    letters.append(Character.toLowerCase(c));
+                }
+            }
+            exceptions.put(letters.toString(), copyOf(points, count));
+        }
+    }
+}
@@ -0,0 +1,164 @@
+// Copyright 2026-10-15 PlanBase Inc. & Glen Peterson
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.planbase.pdf.layoutmanager;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.IndexColorModel;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ A key for images with the same content, so that the same picture decoded twice (say, a logo read
+ from a database blob for every row) is only embedded in the document once.  BufferedImage only
+ has identity equals() and hashCode().  This is the size of the image and a SHA-1 of its pixels
+ (or of its encoded bytes, if it's embedded without decoding).  Immutable.
+ */
+final class ImageDigest {
+    private final int width;
+    private final int height;
+    private final byte[] digest;
+    private final int hashCode;
+
+    private ImageDigest(int w, int h, byte[] d) {
+        width = w; height = h; digest = d;
+        hashCode = Arrays.hashCode(d);
+    }
+
+    /** Digests the pixels of the given image. */
+    static ImageDigest of(BufferedImage bi) {
+        MessageDigest md = sha1();
+        int w = bi.getWidth();
+        int h = bi.getHeight();
+        if (!digestRaster(md, bi)) {
+            // Whatever the format, ARGB is what it looks like.
+            int[] row = new int[w];
+            byte[] bytes = new byte[w * 4];
+            for (int y = 0; y < h; y++) {
+                bi.getRGB(0, y, w, 1, row, 0, w);
+                for (int x = 0, i = 0; x < w; x++) {
+                    int p = row[x];
+                    bytes[i++] = (byte) (p >>> 24);
+                    bytes[i++] = (byte) (p >>> 16);
+                    bytes[i++] = (byte) (p >>> 8);
+                    bytes[i++] = (byte) p;
+                }
+                md.update(bytes);
+            }
+        }
+        return new ImageDigest(w, h, md.digest());
+    }
+
+    /**
+     Digests an image by its encoded bytes (e.g. a JPEG file) instead of its pixels.  The same
+     picture encoded differently gets a different digest.
+     @param format how the bytes are encoded, including anything about them that's not in them
+     */
+    static ImageDigest of(int width, int height, String format, byte[] encoded) {
+        MessageDigest md = sha1();
+        // So that encoded bytes never have the same digest as pixels or another format.
+        try {
+            md.update(format.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException uee) {
+            throw new IllegalStateException("No UTF-8", uee);
+        }
+        md.update((byte) 0);
+        md.update(encoded);
+        return new ImageDigest(width, height, md.digest());
+    }
+
+    /** Digests the raw image data, a lot faster than getRGB(), if the raster is a simple array. */
+    private static boolean digestRaster(MessageDigest md, BufferedImage bi) {
+        if (bi.getType() == BufferedImage.TYPE_CUSTOM) { return false; }
+        // Indexed (and binary) images can have any palette, which isn't in the data buffer.
+        if (bi.getColorModel() instanceof IndexColorModel) { return false; }
+        WritableRaster raster = bi.getRaster();
+        // A getSubimage() shares the whole of its parent's data buffer.
+        if ( (raster.getParent() != null) ||
+             (raster.getSampleModelTranslateX() != 0) ||
+             (raster.getSampleModelTranslateY() != 0) ) {
+            return false;
+        }
+        SampleModel sm = raster.getSampleModel();
+        DataBuffer db = raster.getDataBuffer();
+        if (db.getNumBanks() != 1) { return false; }
+        int w = bi.getWidth();
+        int h = bi.getHeight();
+        // The image's type means the same bytes are the same pixels.
+        md.update((byte) bi.getType());
+        if ( (db instanceof DataBufferByte) && (sm instanceof ComponentSampleModel) ) {
+            ComponentSampleModel csm = (ComponentSampleModel) sm;
+            if ( (csm.getScanlineStride() != (w * csm.getPixelStride())) ||
+                 (db.getSize() != (h * csm.getScanlineStride())) ) {
+                return false;
+            }
+            md.update(((DataBufferByte) db).getData());
+            return true;
+        }
+        if ( (db instanceof DataBufferInt) && (sm instanceof SinglePixelPackedSampleModel) ) {
+            if ( (((SinglePixelPackedSampleModel) sm).getScanlineStride() != w) ||
+                 (db.getSize() != (w * h)) ) {
+                return false;
+            }
+            int[] data = ((DataBufferInt) db).getData();
+            byte[] bytes = new byte[Math.min(data.length, 4096) * 4];
+            for (int start = 0; start < data.length; start += 4096) {
+                int end = Math.min(data.length, start + 4096);
+                int i = 0;
+                for (int j = start; j < end; j++) {
+                    int p = data[j];
+                    bytes[i++] = (byte) (p >>> 24);
+                    bytes[i++] = (byte) (p >>> 16);
+                    bytes[i++] = (byte) (p >>> 8);
+                    bytes[i++] = (byte) p;
+                }
+                md.update(bytes, 0, i);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static MessageDigest sha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException nsae) {
+            // Every Java platform is required to have SHA-1.
+            throw new IllegalStateException("No SHA-1 MessageDigest", nsae);
+        }
+    }
+
+    @Override public int hashCode() { return hashCode; }
+
+    @Override public boolean equals(Object other) {
+        if (this == other) { return true; }
+        if ( !(other instanceof ImageDigest) ) { return false; }
+        ImageDigest that = (ImageDigest) other;
+        return (this.width == that.width) && (this.height == that.height) &&
+               Arrays.equals(this.digest, that.digest);
+    }
+
+    @Override public String toString() {
+        return "ImageDigest(" + width + "x" + height + ")";
+    }
+}
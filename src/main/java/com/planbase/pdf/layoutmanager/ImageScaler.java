@@ -0,0 +1,155 @@
+// Copyright 2026-10-15 PlanBase Inc. & Glen Peterson
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.planbase.pdf.layoutmanager;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+
+/**
+ Shrinks images by averaging the area of the original under each new pixel (a box filter).  That
+ doesn't alias the way nearest-neighbor or a single bilinear step does when shrinking a camera
+ image to a thumbnail, and it's simple enough to work straight on the samples, so gray images keep
+ their values instead of going through Java's color conversions.  Only for shrinking.
+ */
+final class ImageScaler {
+    private ImageScaler() { throw new UnsupportedOperationException("No instantiation"); }
+
+    /**
+     For each new pixel along one side, the first original pixel under it and how much of each
+     original pixel (from that one on) it covers, adding up to 1.
+     */
+    private static final class Weights {
+        final int[] start;
+        final float[][] weights;
+
+        Weights(int from, int to) {
+            start = new int[to];
+            weights = new float[to][];
+            double scale = ((double) from) / to;
+            for (int i = 0; i < to; i++) {
+                double a = i * scale;
+                double b = Math.min(from, (i + 1) * scale);
+                int first = (int) Math.floor(a);
+                int last = Math.min(from, (int) Math.ceil(b));
+                float[] ws = new float[last - first];
+                for (int j = first; j < last; j++) {
+                    ws[j - first] = (float) ((Math.min(b, j + 1) - Math.max(a, j)) / scale);
+                }
+                start[i] = first;
+                weights[i] = ws;
+            }
+        }
+    }
+
+    /**
+     Returns a copy of the given image shrunk to the given size.  Gray images stay gray.  Anything
+     else becomes RGB, or ARGB if it has transparency.
+     */
+    static BufferedImage scale(BufferedImage bi, int w, int h) {
+        if ( (w < 1) || (h < 1) || (w > bi.getWidth()) || (h > bi.getHeight()) ) {
+            throw new IllegalArgumentException("Can only shrink a " + bi.getWidth() + "x" +
+                                               bi.getHeight() + " image, not scale it to " +
+                                               w + "x" + h);
+        }
+        boolean gray = bi.getType() == BufferedImage.TYPE_BYTE_GRAY;
+        boolean alpha = !gray && bi.getColorModel().hasAlpha();
+        int channels = gray ? 1 : 4;
+        int srcW = bi.getWidth();
+        Weights xs = new Weights(srcW, w);
+        Weights ys = new Weights(bi.getHeight(), h);
+
+        int[] srcRow = new int[srcW];
+        // One original row, shrunk horizontally.
+        float[] narrow = new float[w * channels];
+        // One new row.
+        float[] sum = new float[w * channels];
+        BufferedImage out = new BufferedImage(w, h, gray ? BufferedImage.TYPE_BYTE_GRAY :
+                                                    alpha ? BufferedImage.TYPE_INT_ARGB
+                                                          : BufferedImage.TYPE_INT_RGB);
+        WritableRaster raster = out.getRaster();
+        int[] outRow = new int[w];
+        for (int y = 0; y < h; y++) {
+            Arrays.fill(sum, 0f);
+            float[] yws = ys.weights[y];
+            for (int k = 0; k < yws.length; k++) {
+                int sy = ys.start[y] + k;
+                if (gray) {
+                    bi.getRaster().getSamples(0, sy, srcW, 1, 0, srcRow);
+                } else {
+                    bi.getRGB(0, sy, srcW, 1, srcRow, 0, srcW);
+                }
+                narrow(srcRow, gray, xs, narrow);
+                float yw = yws[k];
+                for (int i = 0; i < sum.length; i++) {
+                    sum[i] += narrow[i] * yw;
+                }
+            }
+            if (gray) {
+                for (int x = 0; x < w; x++) {
+                    outRow[x] = clamp(sum[x]);
+                }
+                raster.setSamples(0, y, w, 1, 0, outRow);
+            } else {
+                for (int x = 0, i = 0; x < w; x++, i += 4) {
+                    float a = sum[i];
+                    // Colors were weighted by alpha so that transparent pixels don't tint the
+                    // visible ones next to them.
+                    float un = (a > 0) ? 255f / a : 0;
+                    outRow[x] = (clamp(a) << 24) | (clamp(sum[i + 1] * un) << 16) |
+                                (clamp(sum[i + 2] * un) << 8) | clamp(sum[i + 3] * un);
+                }
+                out.setRGB(0, y, w, 1, outRow, 0, w);
+            }
+        }
+        return out;
+    }
+
+    /** Shrinks one row of samples (gray) or ARGB pixels horizontally. */
+    private static void narrow(int[] row, boolean gray, Weights xs, float[] out) {
+        int channels = gray ? 1 : 4;
+        for (int x = 0, o = 0; x < xs.start.length; x++, o += channels) {
+            float[] ws = xs.weights[x];
+            int first = xs.start[x];
+            if (gray) {
+                float g = 0;
+                for (int k = 0; k < ws.length; k++) {
+                    g += row[first + k] * ws[k];
+                }
+                out[o] = g;
+            } else {
+                float a = 0, r = 0, gr = 0, b = 0;
+                for (int k = 0; k < ws.length; k++) {
+                    int p = row[first + k];
+                    float pa = (p >>> 24) * ws[k];
+                    a += pa;
+                    r += ((p >> 16) & 0xFF) * pa;
+                    gr += ((p >> 8) & 0xFF) * pa;
+                    b += (p & 0xFF) * pa;
+                }
+                // Premultiplied by alpha / 255.
+                out[o] = a;
+                out[o + 1] = r / 255f;
+                out[o + 2] = gr / 255f;
+                out[o + 3] = b / 255f;
+            }
+        }
+    }
+
+    private static int clamp(float f) {
+        int i = Math.round(f);
+        return (i < 0) ? 0 : (i > 255) ? 255 : i;
+    }
+}
@@ -0,0 +1,41 @@
+// Copyright 2026-10-15 PlanBase Inc. & Glen Peterson
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.planbase.pdf.layoutmanager;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ Where to get the bytes of an image file when they're needed, for
+ {@link ScaledJpeg#lazy(ImageSource)} and {@link ScaledPng#lazy(ImageSource)}.  The file is opened
+ once to read its size, and once more when it's embedded, so nothing has to keep its bytes or
+ pixels in memory in between.  For example, an image in a database:
+
+ <pre><code>ScaledJpeg.lazy(new ImageSource() {
+    public InputStream open() throws IOException {
+        return blobStore.openStream(imageId);
+    }
+});</code></pre>
+
+ <p>Two ScaledJpegs (or ScaledPngs) with equal ImageSources are embedded once, so implement
+ equals() and hashCode() if you make more than one ImageSource for the same image.</p>
+ */
+public interface ImageSource {
+    /**
+     Returns a new stream of the image file's bytes, which the caller closes.  Must return the same
+     bytes every time.
+     */
+    InputStream open() throws IOException;
+}
@@ -0,0 +1,107 @@
+// Copyright 2026-10-15 PlanBase Inc. & Glen Peterson
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.planbase.pdf.layoutmanager;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ An image file that hasn't been read yet, except for its size.  The size comes from the file's
+ header through an ImageIO reader, without decoding any pixels.  Immutable.
+ */
+final class LazyImage {
+    private final ImageSource source;
+    private final int width;
+    private final int height;
+
+    private LazyImage(ImageSource s, int w, int h) { source = s; width = w; height = h; }
+
+    /**
+     Reads the size of the image from its header.
+     @throws IllegalArgumentException if ImageIO can't read the image.
+     */
+    static LazyImage of(ImageSource source) throws IOException {
+        InputStream is = source.open();
+        try {
+            ImageInputStream iis = ImageIO.createImageInputStream(is);
+            try {
+                Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+                if (!readers.hasNext()) {
+                    throw new IllegalArgumentException("Not an image ImageIO can read: " + source);
+                }
+                ImageReader reader = readers.next();
+                try {
+                    // Only reads as far as it needs to for the size.
+                    reader.setInput(iis, true, true);
+                    return new LazyImage(source, reader.getWidth(0), reader.getHeight(0));
+                } finally {
+                    reader.dispose();
+                }
+            } finally {
+                iis.close();
+            }
+        } finally {
+            is.close();
+        }
+    }
+
+    static LazyImage of(File f) throws IOException { return of(new FileSource(f)); }
+
+    /** Opens a file, and is equal to any other FileSource for the same file. */
+    private static final class FileSource implements ImageSource {
+        private final File file;
+
+        FileSource(File f) { file = f; }
+
+        @Override public InputStream open() throws IOException { return new FileInputStream(file); }
+
+        @Override public int hashCode() { return file.hashCode(); }
+
+        @Override public boolean equals(Object other) {
+            return (other instanceof FileSource) && file.equals(((FileSource) other).file);
+        }
+
+        @Override public String toString() { return "FileSource(" + file + ")"; }
+    }
+
+    /** Where the image comes from, for equality comparisons. */
+    ImageSource source() { return source; }
+
+    /** Width in pixels */
+    int width() { return width; }
+    /** Height in pixels */
+    int height() { return height; }
+
+    /** Reads the whole image file. */
+    byte[] read() throws IOException {
+        InputStream is = source.open();
+        try {
+            return Utils.readAll(is);
+        } finally {
+            is.close();
+        }
+    }
+
+    @Override public String toString() {
+        return "LazyImage(" + source + " " + width + "x" + height + ")";
+    }
+}
@@ -1,11 +1,12 @@
 package com.planbase.pdf.layoutmanager;
 
-import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.graphics.form.PDFormXObject;
 
 import java.awt.Color;
 import java.io.IOException;
-import java.util.Set;
-import java.util.TreeSet;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Maybe better called a "DocumentSection" this represents a group of Renderables that logically belong on the same
@@ -18,8 +19,12 @@ public class LogicalPage { // AKA Document Section
     private final PdfLayoutMgr mgr;
     private final boolean portrait;
     // borderItems apply to a logical section
-    private Set<PdfItem> borderItems = new TreeSet<PdfItem>();
-    private int borderOrd = 0;
+    private final DisplayList borderItems;
+    // borderItems drawn once for all pages.  Null until the first page is committed.
+    private PDFormXObject borderForm = null;
+    // While a stamped cell is being drawn into its Stamp, everything goes here instead of onto a
+    // page.  Null the rest of the time.
+    private DisplayList recorder = null;
     boolean valid = true;
 
     // TODO: This has an assumed margin.  Probably want to return mgr.pageHeight() but that's a breaking change.
@@ -41,7 +46,10 @@ public class LogicalPage { // AKA Document Section
                         : mgr.pageHeight();
     }
 
-    private LogicalPage(PdfLayoutMgr m, boolean p) { mgr = m; portrait = p; }
+    private LogicalPage(PdfLayoutMgr m, boolean p) {
+        mgr = m; portrait = p;
+        borderItems = new DisplayList(m.styles());
+    }
 
     public static LogicalPage of(PdfLayoutMgr m) { return new LogicalPage(m, false); }
     public static LogicalPage of(PdfLayoutMgr m, Orientation orientation) {
@@ -65,6 +73,10 @@ public class LogicalPage { // AKA Document Section
 
     LogicalPage drawStyledText(float x, float y, String s, TextStyle textStyle) {
         if (!valid) { throw new IllegalStateException("Logical page accessed after commit"); }
+        if (recorder != null) {
+            recorder.drawText(x, y, s, textStyle, PdfItem.DEFAULT_Z_INDEX);
+            return this;
+        }
         PageBufferAndY pby = mgr.appropriatePage(this, y);
         pby.pb.drawStyledText(x, pby.y, s, textStyle);
         return this;
@@ -72,6 +84,11 @@ public class LogicalPage { // AKA Document Section
 
     LogicalPage drawJpeg(final float xVal, final float yVal, final ScaledJpeg sj) {
         if (!valid) { throw new IllegalStateException("Logical page accessed after commit"); }
+        if (recorder != null) {
+            recorder.drawImage(xVal, yVal, mgr.ensureCached(sj), sj.dimensions(),
+                               PdfItem.DEFAULT_Z_INDEX);
+            return this;
+        }
         // Calculate what page image should start on
         PageBufferAndY pby = mgr.appropriatePage(this, yVal);
         // draw image based on baseline and decrement y appropriately for image.
@@ -81,6 +98,11 @@ public class LogicalPage { // AKA Document Section
 
     LogicalPage drawPng(final float xVal, final float yVal, final ScaledPng sj) {
         if (!valid) { throw new IllegalStateException("Logical page accessed after commit"); }
+        if (recorder != null) {
+            recorder.drawImage(xVal, yVal, mgr.ensureCached(sj), sj.dimensions(),
+                               PdfItem.DEFAULT_Z_INDEX);
+            return this;
+        }
         // Calculate what page image should start on
         PageBufferAndY pby = mgr.appropriatePage(this, yVal);
         // draw image based on baseline and decrement y appropriately for image.
@@ -99,6 +121,10 @@ public class LogicalPage { // AKA Document Section
         final float bottomY = topY - maxHeight;
 
         if (topY < bottomY) { throw new IllegalStateException("height must be positive"); }
+        if (recorder != null) {
+            recorder.fillRect(left, bottomY, width, maxHeight, c, -1);
+            return this;
+        }
         // logger.info("About to put line: (" + x1 + "," + y1 + "), (" + x2 + "," + y2 + ")");
         PageBufferAndY pby1 = mgr.appropriatePage(this, topY);
         PageBufferAndY pby2 = mgr.appropriatePage(this, bottomY);
@@ -155,6 +181,10 @@ public class LogicalPage { // AKA Document Section
 //        mgr.putLine(x1, y1, x2, y2, ls);
 
         if (y1 < y2) { throw new IllegalStateException("y1 param must be >= y2 param"); }
+        if (recorder != null) {
+            recorder.drawLine(x1, y1, x2, y2, ls, PdfItem.DEFAULT_Z_INDEX);
+            return this;
+        }
         // logger.info("About to put line: (" + x1 + "," + y1 + "), (" + x2 + "," + y2 + ")");
         PageBufferAndY pby1 = mgr.appropriatePage(this, y1);
         PageBufferAndY pby2 = mgr.appropriatePage(this, y2);
@@ -218,6 +248,44 @@ public class LogicalPage { // AKA Document Section
         return this;
     }
 
+    /**
+     Draws a stamped cell by reference to its Stamp, recording the Stamp first if this is the first
+     time a cell like it has been drawn in this document.
+     @return what the cell's render() returns, or null if the cell has to be drawn the usual way.
+     */
+    XyOffset putStamp(Cell cell, XyOffset outerTopLeft, XyDim outerDimensions) {
+        if (!valid) { throw new IllegalStateException("Logical page accessed after commit"); }
+        // Cells inside a stamped cell are drawn into the outer cell's stamp.
+        if (recorder != null) { return null; }
+
+        List<Object> key = new ArrayList<Object>();
+        if (!cell.addStampKey(key)) { return null; }
+        key.add(outerDimensions);
+
+        float top = outerTopLeft.y();
+        PageBufferAndY pby1 = mgr.appropriatePage(this, top);
+        PageBufferAndY pby2 = mgr.appropriatePage(this, top - outerDimensions.y());
+        // A form can't be split across pages.
+        if (pby1.pb != pby2.pb) { return null; }
+
+        Stamp stamp = mgr.stamps().get(key);
+        if (stamp == null) {
+            recorder = new DisplayList(mgr.styles());
+            try {
+                XyOffset lowerRight = cell.render(this, XyOffset.of(0, outerDimensions.y()),
+                                                  outerDimensions, false);
+                stamp = Stamp.of(recorder, mgr.doc(), outerDimensions, lowerRight);
+            } catch (IOException ioe) {
+                // Renderable.render() doesn't throw IOException.
+                throw new IllegalStateException("Failed to make a Form XObject for " + cell, ioe);
+            } finally {
+                recorder = null;
+            }
+            mgr.stamps().put(key, stamp);
+        }
+        return stamp.place(pby1.pb, outerTopLeft.x(), pby1.y, top);
+    }
+
     /** You can draw a cell without a table (for a heading, or paragraph of same-format text, or whatever). */
     public XyOffset putCell(final float topLeftX, final float topLeftY, Cell cell) {
         if (!valid) { throw new IllegalStateException("Logical page accessed after commit"); }
@@ -288,17 +356,41 @@ public class LogicalPage { // AKA Document Section
         return cell.render(this, XyOffset.of(x, origY), innerDim.x(outerWidth), true).y();
     }
 
-    void commitBorderItems(PDPageContentStream stream) throws IOException {
+    /**
+     Draws the header and footer items on a page.  They're the same on every page, so they're
+     drawn once into a Form XObject the first time, and every page just refers to that.
+     */
+    void commitBorderItems(GraphicsState gs) throws IOException {
         if (!valid) { throw new IllegalStateException("Logical page accessed after commit"); }
-        // Since items are z-ordered, then sub-ordered by entry-order, we will draw
-        // everything in the correct order.
-        for (PdfItem item : borderItems) { item.commit(stream); }
+        prepareBorderItems();
+        if (borderForm != null) {
+            gs.drawForm(borderForm);
+        }
+    }
+
+    /**
+     Makes the header and footer form, if there is one and it hasn't been made yet.  Must be called
+     before pages are committed on other threads.
+     */
+    void prepareBorderItems() throws IOException {
+        if ( (borderForm == null) && (borderItems.size() > 0) ) {
+            borderForm = renderBorderForm();
+        }
+    }
+
+    private PDFormXObject renderBorderForm() throws IOException {
+        // The visible part of the page, in the same coordinates as the rest of the logical page.
+        // For landscape, logicalPageEnd's rotation puts that at the top of the portrait page.
+        PDRectangle bbox = portrait ? new PDRectangle(mgr.pageWidth(), mgr.pageHeight())
+                                    : new PDRectangle(0, mgr.pageHeight() - mgr.pageWidth(),
+                                                      mgr.pageHeight(), mgr.pageWidth());
+        return borderItems.toForm(mgr.doc(), bbox, 0, borderItems.numZIndexes());
     }
 
     private void borderStyledText(final float xCoord, final float yCoord, final String text,
                                TextStyle s, final float z) {
         if (!valid) { throw new IllegalStateException("Logical page accessed after commit"); }
-        borderItems.add(PdfLayoutMgr.PageBuffer.Text.of(xCoord, yCoord, text, s, borderOrd++, z));
+        borderItems.drawText(xCoord, yCoord, text, s, z);
     }
 
     /**
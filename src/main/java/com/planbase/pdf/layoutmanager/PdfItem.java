@@ -14,60 +14,14 @@
 
 package com.planbase.pdf.layoutmanager;
 
-import org.apache.pdfbox.pdmodel.PDPageContentStream;
-
-import java.io.IOException;
-
 /**
-Represents items to be later drawn to the page of a PDF file.  The z-index allows items to be drawn
- from back (lower-z-values) to front (higher-z-values).  When the z-index of two items is the same
- they will be drawn in the order they were created.  Implementing classes should give PdfItems
- ascending serialNumbers as they are created by calling super(num, z);  PdfItems are comparable
- and their natural ordering is the same order as they will be drawn: ascending by z-index,
- then by creation order.  The default z-index is zero.
+ Where things are drawn on a page is ordered by z-index, from back (lower-z-values) to front
+ (higher-z-values).  When the z-index of two items is the same, they are drawn in the order they
+ were added.  The default z-index is zero.  Pages keep their drawing operations in that order in a
+ DisplayList, so this class only holds the default z-index.
  */
-public abstract class PdfItem implements Comparable<PdfItem> {
+public final class PdfItem {
+    private PdfItem() { throw new UnsupportedOperationException("No instantiation"); }
 
     public static final float DEFAULT_Z_INDEX = 0f;
-
-    private final long serialNumber;
-    private final float z;
-
-    PdfItem(final long ord, final float zIndex) { z = zIndex; serialNumber = ord; }
-//    public static PdfItem of(final long ord, final float zIndex) {
-//        return new PdfItem(ord, zIndex);
-//    }
-
-    public abstract void commit(PDPageContentStream stream) throws IOException;
-
-    // @Override
-    public int compareTo(PdfItem that) {
-        // Ascending by Z (draw the lower-order background items first)
-        float zDiff = this.z - that.z;
-        if (zDiff > 0) { return 1; } else if (zDiff < 0) { return -1; }
-        // Ascending by creation order
-        long oDiff = this.serialNumber - that.serialNumber;
-        if (oDiff > 0) { return 1; } else if (oDiff < 0) { return -1; }
-        return 0;
-    }
-
-    @Override
-    public boolean equals(Object other) {
-        // Cheapest operation first...
-        if (this == other) { return true; }
-        // Return false if can't be equal
-        if ( (other == null) ||
-             !(other instanceof PdfItem) ||
-             (this.hashCode() != other.hashCode()) ) {
-            return false;
-        }
-        // Details...
-        final PdfItem that = (PdfItem) other;
-        return compareTo(that) == 0;
-    }
-
-    @Override
-    public int hashCode() {
-        return ((int) (z * 1000)) + (int) serialNumber;
-    }
 }
@@ -14,6 +14,9 @@
 
 package com.planbase.pdf.layoutmanager;
 
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSStream;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDDocumentCatalog;
 import org.apache.pdfbox.pdmodel.PDPage;
@@ -21,8 +24,10 @@ import org.apache.pdfbox.pdmodel.PDPageContentStream;
 import org.apache.pdfbox.pdmodel.common.PDRectangle;
 import org.apache.pdfbox.pdmodel.common.filespecification.PDEmbeddedFile;
 import org.apache.pdfbox.pdmodel.encryption.ProtectionPolicy;
+import org.apache.pdfbox.pdmodel.font.PDType0Font;
 import org.apache.pdfbox.pdmodel.graphics.color.PDColorSpace;
 import org.apache.pdfbox.pdmodel.graphics.color.PDDeviceRGB;
+import org.apache.pdfbox.pdmodel.graphics.form.PDFormXObject;
 import org.apache.pdfbox.pdmodel.graphics.image.JPEGFactory;
 import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
 import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
@@ -30,6 +35,7 @@ import org.apache.pdfbox.util.Matrix;
 
 import java.awt.Color;
 import java.awt.image.BufferedImage;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -37,12 +43,13 @@ import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.TreeSet;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 /**
  <p>The main class in this package; it handles page and line breaks.</p>
@@ -119,52 +126,158 @@ public class PdfLayoutMgr {
 //    public Padding pageMargins() { return pageMargins; }
 //    public PDRectangle printableArea() { return printableArea; }
 
-    // You can have many DrawJpegs backed by only a few images - it is a flyweight, and this
-    // hash map keeps track of the few underlying images, even as intances of DrawJpeg
-    // represent all the places where these images are used.
-    // CRITICAL: This means that the the set of jpgs must be thrown out and created anew for each
-    // document!  Thus, a private final field on the PdfLayoutMgr instead of DrawJpeg, and DrawJpeg
-    // must be an inner class (or this would have to be package scoped).
-    private final Map<BufferedImage,PDImageXObject> jpegMap = new HashMap<BufferedImage,PDImageXObject>();
-
-    private PDImageXObject ensureCached(final ScaledJpeg sj) {
-        BufferedImage bufferedImage = sj.bufferedImage();
-        PDImageXObject temp = jpegMap.get(bufferedImage);
+    // You can have many ScaledJpegs backed by only a few images - it is a flyweight, and this
+    // hash map keeps track of the few underlying images, even as ScaledJpegs represent all the
+    // places where these images are used.  Keyed by ScaledJpeg.source() (a BufferedImage, a
+    // RawJpeg, or an ImageSource), so ScaledJpegs made from the same source share one
+    // PDImageXObject.
+    // CRITICAL: A PDImageXObject belongs to one document, so these maps must be thrown out and
+    // created anew for each document!  Thus, private final fields on the PdfLayoutMgr instead of
+    // on ScaledJpeg.
+    // Weak keys so that once you're done with an image, it can be garbage collected (its
+    // PDImageXObject stays in the document).
+    private final Map<Object,PDImageXObject> jpegMap = new WeakHashMap<Object,PDImageXObject>();
+    // Different BufferedImages with the same pixels share one PDImageXObject too.
+    private final Map<ImageDigest,PDImageXObject> jpegDigests = new HashMap<ImageDigest,PDImageXObject>();
+
+    PDImageXObject ensureCached(final ScaledJpeg sj) {
+        Object source = sj.source();
+        PDImageXObject temp = jpegMap.get(source);
         if (temp == null) {
-            try {
-                temp = JPEGFactory.createFromImage(doc, bufferedImage);
-            } catch (IOException ioe) {
-                 // can there ever be an exception here?  Doesn't it get written later?
-                throw new IllegalStateException("Caught exception creating a PDImageXObject from a bufferedImage", ioe);
+            RawJpeg rawJpeg = sj.rawJpeg();
+            // A lazy image isn't read until it's embedded, so there's nothing to digest yet.
+            ImageDigest digest = (sj.lazy() != null) ? null :
+                                 (rawJpeg == null) ? ImageDigest.of(sj.bufferedImage())
+                                                   : rawJpeg.digest();
+            temp = (digest == null) ? null : jpegDigests.get(digest);
+            if (temp == null) {
+                try {
+                    // A JPEG file goes in as-is.  Anything else has to be compressed.
+                    temp = defersImages(sj.lazy()) ? defer(DeferredImage.of(doc, sj)) :
+                           (rawJpeg == null) ? JPEGFactory.createFromImage(doc, sj.bufferedImage())
+                                             : rawJpeg.toImage(doc);
+                } catch (IOException ioe) {
+                     // can there ever be an exception here?  Doesn't it get written later?
+                    throw new IllegalStateException("Caught exception creating a PDImageXObject from a bufferedImage", ioe);
+                }
+                if (digest != null) {
+                    jpegDigests.put(digest, temp);
+                }
+                embeddedImages++;
             }
-            jpegMap.put(bufferedImage, temp);
+            jpegMap.put(source, temp);
         }
+        placed(temp, sj.dimensions());
         return temp;
     }
 
-        // You can have many DrawPngs backed by only a few images - it is a flyweight, and this
-    // hash map keeps track of the few underlying images, even as intances of DrawPng
-    // represent all the places where these images are used.
-    // CRITICAL: This means that the the set of jpgs must be thrown out and created anew for each
-    // document!  Thus, a private final field on the PdfLayoutMgr instead of DrawPng, and DrawPng
-    // must be an inner class (or this would have to be package scoped).
-    private final Map<BufferedImage,PDImageXObject> pngMap = new HashMap<BufferedImage,PDImageXObject>();
+    // The same flyweight as jpegMap, for ScaledPngs.  Keyed (weakly) by ScaledPng.source(): a
+    // BufferedImage, a RawPng, or an ImageSource.  One per document, like jpegMap.
+    private final Map<Object,PDImageXObject> pngMap = new WeakHashMap<Object,PDImageXObject>();
+    // Different BufferedImages with the same pixels share one PDImageXObject too.
+    private final Map<ImageDigest,PDImageXObject> pngDigests = new HashMap<ImageDigest,PDImageXObject>();
 
-    private PDImageXObject ensureCached(final ScaledPng sj) {
-        BufferedImage bufferedImage = sj.bufferedImage();
-        PDImageXObject temp = pngMap.get(bufferedImage);
+    PDImageXObject ensureCached(final ScaledPng sj) {
+        Object source = sj.source();
+        PDImageXObject temp = pngMap.get(source);
         if (temp == null) {
-            try {
-                temp = LosslessFactory.createFromImage(doc, bufferedImage);
-            } catch (IOException ioe) {
-                 // can there ever be an exception here?  Doesn't it get written later?
-                throw new IllegalStateException("Caught exception creating a PDImageXObject from a bufferedImage", ioe);
+            RawPng rawPng = sj.rawPng();
+            // A lazy image isn't read until it's embedded, so there's nothing to digest yet.
+            ImageDigest digest = (sj.lazy() != null) ? null :
+                                 (rawPng == null) ? ImageDigest.of(sj.bufferedImage())
+                                                  : rawPng.digest();
+            temp = (digest == null) ? null : pngDigests.get(digest);
+            if (temp == null) {
+                try {
+                    // Simple PNG image data goes in as-is.  Anything else has to be compressed.
+                    temp = defersImages(sj.lazy()) ? defer(DeferredImage.of(doc, sj)) :
+                           (rawPng == null) ? LosslessFactory.createFromImage(doc, sj.bufferedImage())
+                                            : rawPng.toImage(doc);
+                } catch (IOException ioe) {
+                     // can there ever be an exception here?  Doesn't it get written later?
+                    throw new IllegalStateException("Caught exception creating a PDImageXObject from a bufferedImage", ioe);
+                }
+                if (digest != null) {
+                    pngDigests.put(digest, temp);
+                }
+                embeddedImages++;
             }
-            pngMap.put(bufferedImage, temp);
+            pngMap.put(source, temp);
         }
+        placed(temp, sj.dimensions());
         return temp;
     }
 
+    // Images to embed at save(), once we know the largest size each is drawn at.  Only used with
+    // a maxImageDpi.  Keyed by the placeholder the pages draw.
+    private final Map<PDImageXObject,DeferredImage> deferredImages =
+            new LinkedHashMap<PDImageXObject,DeferredImage>();
+    // Lazy images to embed when the logical page they're drawn on is committed.
+    private final List<DeferredImage> imagesToEmbed = new ArrayList<DeferredImage>();
+    // Images being compressed on the imageExecutor, to fill in on this thread.
+    private final Map<DeferredImage,Future<DeferredImage.Encoded>> imageTasks =
+            new LinkedHashMap<DeferredImage,Future<DeferredImage.Encoded>>();
+
+    /** Whether an image is drawn as a placeholder, to be filled in later.  Lazy ones always are. */
+    private boolean defersImages(LazyImage lazy) {
+        return (lazy != null) || (options.maxImageDpi() > 0) || (options.imageExecutor() != null);
+    }
+
+    private PDImageXObject defer(DeferredImage di) {
+        if (options.maxImageDpi() > 0) {
+            deferredImages.put(di.image(), di);
+        } else if (options.imageExecutor() != null) {
+            // The size it's drawn at doesn't matter, so start now.
+            embedLater(di);
+        } else {
+            imagesToEmbed.add(di);
+        }
+        return di.image();
+    }
+
+    /**
+     Compresses the image on the imageExecutor.  Only awaitImages() puts it in the document,
+     because nothing that changes the document is thread-safe.
+     */
+    private void embedLater(final DeferredImage di) {
+        final float maxDpi = options.maxImageDpi();
+        FutureTask<DeferredImage.Encoded> task =
+                new FutureTask<DeferredImage.Encoded>(new Callable<DeferredImage.Encoded>() {
+                    @Override public DeferredImage.Encoded call() throws IOException {
+                        return di.encode(maxDpi);
+                    }
+                });
+        options.imageExecutor().execute(task);
+        imageTasks.put(di, task);
+    }
+
+    /**
+     Embeds the lazy images drawn so far, and fills in the images that were compressed on the
+     imageExecutor.
+     */
+    private void awaitImages() throws IOException {
+        for (DeferredImage di : imagesToEmbed) {
+            di.embed(doc, 0);
+        }
+        // Nothing else refers to them, so their bytes and pixels can be garbage collected.
+        imagesToEmbed.clear();
+        try {
+            for (Map.Entry<DeferredImage,Future<DeferredImage.Encoded>> entry :
+                    imageTasks.entrySet()) {
+                entry.getKey().fill(doc, Utils.get(entry.getValue(), "image"));
+            }
+        } finally {
+            imageTasks.clear();
+        }
+    }
+
+    private void placed(PDImageXObject img, XyDim dim) {
+        DeferredImage di = deferredImages.get(img);
+        if (di != null) {
+            di.placed(dim);
+        }
+    }
+
     /**
      * Please don't access this class directly if you don't have to.  It's a little bit like a model for stuff that
      * needs to be drawn on a page, but much more like a heap of random functionality that sort of landed in an
@@ -172,41 +285,38 @@ public class PdfLayoutMgr {
      */
     static class PageBuffer {
         public final int pageNum;
-        private long lastOrd = 0;
-        private final Set<PdfItem> items = new TreeSet<PdfItem>();
+        private final DisplayList items;
 
-        private PageBuffer(int pn) {
+        private PageBuffer(int pn, StyleTable styles) {
             pageNum = pn;
+            items = new DisplayList(styles);
         }
 
         void fillRect(final float xVal, final float yVal, final float w, final float h,
                              final Color c, final float z) {
-            items.add(FillRect.of(xVal, yVal, w, h, c, lastOrd++, z));
+            items.fillRect(xVal, yVal, w, h, c, z);
         }
 
 //        public void fillRect(final float xVal, final float yVal, final float w, final Color c,
 //                             final float h) {
 //            fillRect(xVal, yVal, w, h, c, PdfItem.DEFAULT_Z_INDEX);
-//        }
-//
-//        public void drawJpeg(final float xVal, final float yVal, final BufferedImage bi,
-//                             final PdfLayoutMgr mgr, final float z) {
-//            items.add(DrawJpeg.of(xVal, yVal, bi, mgr, lastOrd++, z));
 //        }
 
         void drawJpeg(final float xVal, final float yVal, final ScaledJpeg sj,
                       final PdfLayoutMgr mgr) {
-            items.add(DrawJpeg.of(xVal, yVal, sj, mgr, lastOrd++, PdfItem.DEFAULT_Z_INDEX));
+            items.drawImage(xVal, yVal, mgr.ensureCached(sj), sj.dimensions(),
+                            PdfItem.DEFAULT_Z_INDEX);
         }
 
         void drawPng(final float xVal, final float yVal, final ScaledPng sj,
                       final PdfLayoutMgr mgr) {
-            items.add(DrawPng.of(xVal, yVal, sj, mgr, lastOrd++, PdfItem.DEFAULT_Z_INDEX));
+            items.drawImage(xVal, yVal, mgr.ensureCached(sj), sj.dimensions(),
+                            PdfItem.DEFAULT_Z_INDEX);
         }
 
         private void drawLine(final float xa, final float ya, final float xb,
                               final float yb, final LineStyle ls, final float z) {
-            items.add(DrawLine.of(xa, ya, xb, yb, ls, lastOrd++, z));
+            items.drawLine(xa, ya, xb, yb, ls, z);
         }
         void drawLine(final float xa, final float ya, final float xb, final float yb,
                               final LineStyle ls) {
@@ -215,157 +325,62 @@ public class PdfLayoutMgr {
 
         private void drawStyledText(final float xCoord, final float yCoord, final String text,
                                    TextStyle s, final float z) {
-            items.add(Text.of(xCoord, yCoord, text, s, lastOrd++, z));
+            items.drawText(xCoord, yCoord, text, s, z);
         }
         void drawStyledText(final float xCoord, final float yCoord, final String text,
                                    TextStyle s) {
             drawStyledText(xCoord, yCoord, text, s, PdfItem.DEFAULT_Z_INDEX);
         }
 
-        private void commit(PDPageContentStream stream) throws IOException {
-            // Since items are z-ordered, then sub-ordered by entry-order, we will draw
-            // everything in the correct order.
-            for (PdfItem item : items) { item.commit(stream); }
+        void drawForm(final float xVal, final float yVal, final PDFormXObject form,
+                      final float z) {
+            items.drawForm(xVal, yVal, form, z);
         }
 
-        private static class DrawLine extends PdfItem {
-            private final float x1, y1, x2, y2;
-            private final LineStyle style;
-            private DrawLine(final float xa, final float ya, final float xb, final float yb,
-                             LineStyle s,
-                             final long ord, final float z) {
-                super(ord, z);
-                x1 = xa; y1 = ya; x2 = xb; y2 = yb; style = s;
-            }
-            public static DrawLine of(final float xa, final float ya, final float xb,
-                                      final float yb, LineStyle s,
-                                      final long ord, final float z) {
-                return new DrawLine(xa, ya, xb, yb, s, ord, z);
-            }
-            @Override
-            public void commit(PDPageContentStream stream) throws IOException {
-                stream.setStrokingColor(style.color());
-                stream.setLineWidth(style.width());
-                stream.moveTo(x1, y1);
-                stream.lineTo(x2, y2);
-                stream.stroke();
-            }
-        }
-
-        private static class FillRect extends PdfItem {
-            private final float x, y, width, height;
-            private final Color color;
-            private FillRect(final float xVal, final float yVal, final float w, final float h,
-                             final Color c, final long ord, final float z) {
-                super(ord, z);
-                x = xVal; y = yVal; width = w; height = h; color = c;
-            }
-            public static FillRect of(final float xVal, final float yVal, final float w,
-                                      final float h, final Color c, final long ord, final float z) {
-                return new FillRect(xVal, yVal, w, h, c, ord, z);
-            }
-            @Override
-            public void commit(PDPageContentStream stream) throws IOException {
-                stream.setNonStrokingColor(color);
-                stream.addRect(x, y, width, height);
-                stream.fill();
-            }
-        }
-
-        static class Text extends PdfItem {
-            public final float x, y;
-            public final String t;
-            public final TextStyle style;
-            private Text(final float xCoord, final float yCoord, final String text,
-                         TextStyle s, final long ord, final float z) {
-                super(ord, z);
-                x = xCoord; y = yCoord; t = text; style = s;
-            }
-            public static Text of(final float xCoord, final float yCoord, final String text,
-                                  TextStyle s, final long ord, final float z) {
-                return new Text(xCoord, yCoord, text, s, ord, z);
-            }
-            @Override
-            public void commit(PDPageContentStream stream) throws IOException {
-                stream.beginText();
-                stream.setNonStrokingColor(style.textColor());
-                stream.setFont(style.font(), style.fontSize());
-                stream.newLineAtOffset(x, y);
-                stream.showText(t);
-                stream.endText();
-            }
-        }
-
-        private static class DrawPng extends PdfItem {
-            private final float x, y;
-            private final PDImageXObject png;
-            private final ScaledPng scaledPng;
-
-            // private Log logger = LogFactory.getLog(DrawPng.class);
-
-            private DrawPng(final float xVal, final float yVal, final ScaledPng sj,
-                             final PdfLayoutMgr mgr,
-                             final long ord, final float z) {
-                super(ord, z);
-                x = xVal; y = yVal;
-                png = mgr.ensureCached(sj);
-                scaledPng = sj;
-            }
-            public static DrawPng of(final float xVal, final float yVal, final ScaledPng sj,
-                                      final PdfLayoutMgr mgr,
-                                      final long ord, final float z) {
-                return new DrawPng(xVal, yVal, sj, mgr, ord, z);
-            }
-            @Override
-            public void commit(PDPageContentStream stream) throws IOException {
-                // stream.drawImage(png, x, y);
-                XyDim dim = scaledPng.dimensions();
-                stream.drawImage(png, x, y, dim.x(), dim.y());
-            }
-        }
-
-        private static class DrawJpeg extends PdfItem {
-            private final float x, y;
-            private final PDImageXObject jpeg;
-            private final ScaledJpeg scaledJpeg;
-
-            // private Log logger = LogFactory.getLog(DrawJpeg.class);
-
-            private DrawJpeg(final float xVal, final float yVal, final ScaledJpeg sj,
-                             final PdfLayoutMgr mgr,
-                             final long ord, final float z) {
-                super(ord, z);
-                x = xVal; y = yVal;
-                jpeg = mgr.ensureCached(sj);
-                scaledJpeg = sj;
-            }
-            public static DrawJpeg of(final float xVal, final float yVal, final ScaledJpeg sj,
-                                      final PdfLayoutMgr mgr,
-                                      final long ord, final float z) {
-                return new DrawJpeg(xVal, yVal, sj, mgr, ord, z);
-            }
-            @Override
-            public void commit(PDPageContentStream stream) throws IOException {
-                // stream.drawImage(jpeg, x, y);
-                XyDim dim = scaledJpeg.dimensions();
-                stream.drawImage(jpeg, x, y, dim.x(), dim.y());
-            }
+        private void commit(GraphicsState gs) throws IOException {
+            items.commit(gs);
         }
     }
 
+    // Committed pages are replaced with null so their drawing operations can be garbage collected.
     private final List<PageBuffer> pages = new ArrayList<PageBuffer>();
     private final PDDocument doc;
+    // Shared by the display lists of every page.
+    private final StyleTable styles = new StyleTable();
+    // Stamped cells already drawn into Form XObjects, by Cell.addStampKey() and size.
+    private final Map<List<Object>,Stamp> stamps = new HashMap<List<Object>,Stamp>();
 
     // pages.size() counts the first page as 1, so 0 is the appropriate sentinel value
     private int unCommittedPageIdx = 0;
 
     private final PDColorSpace colorSpace;
     private final PDRectangle pageSize;
+    private final DocOptions options;
+    // Null unless we deflate page contents ourselves.
+    private final ContentDeflater deflater;
+
+    // For stats()
+    private int committedPages = 0;
+    private int embeddedImages = 0;
+    private long contentStreamBytes = 0;
+    private long bytesWritten = 0;
+    private long saveNanos = 0;
 
     List<PageBuffer> pages() { return Collections.unmodifiableList(pages); }
 
-    private PdfLayoutMgr(PDColorSpace cs, PDRectangle mb) throws IOException {
-        doc = new PDDocument();
+    PDDocument doc() { return doc; }
+
+    StyleTable styles() { return styles; }
+
+    Map<List<Object>,Stamp> stamps() { return stamps; }
+
+    private PdfLayoutMgr(PDColorSpace cs, PDRectangle mb, DocOptions options) throws IOException {
+        doc = (options.memoryUsage() == null) ? new PDDocument()
+                                              : new PDDocument(options.memoryUsage());
+        this.options = options;
+        deflater = options.deflatesContent()
+                   ? ContentDeflater.of(options.compressionExecutor(), options.compressionLevel())
+                   : null;
         colorSpace = cs;
         pageSize = (mb == null) ? PDRectangle.LETTER
                                 : mb;
@@ -378,7 +393,7 @@ public class PdfLayoutMgr {
      @throws IOException
      */
     public static PdfLayoutMgr of(PDColorSpace cs) throws IOException {
-        return new PdfLayoutMgr(cs, null);
+        return new PdfLayoutMgr(cs, null, DocOptions.DEFAULT);
     }
 
     /**
@@ -390,7 +405,20 @@ public class PdfLayoutMgr {
      @throws IOException
      */
     public static PdfLayoutMgr of(PDColorSpace cs, PDRectangle pageSize) throws IOException {
-        return new PdfLayoutMgr(cs, pageSize);
+        return new PdfLayoutMgr(cs, pageSize, DocOptions.DEFAULT);
+    }
+
+    /**
+     Returns a new PdfLayoutMgr with the given color space, page size, and document options.
+     @param cs the color-space.
+     @param pageSize the page size.
+     @param options how to build the document, such as whether to stream pages to a scratch file.
+     @return a new PdfLayoutMgr
+     @throws IOException
+     */
+    public static PdfLayoutMgr of(PDColorSpace cs, PDRectangle pageSize, DocOptions options)
+            throws IOException {
+        return new PdfLayoutMgr(cs, pageSize, options);
     }
 
     /**
@@ -400,7 +428,7 @@ public class PdfLayoutMgr {
      */
     @SuppressWarnings("UnusedDeclaration") // Part of end-user public interface
     public static PdfLayoutMgr newRgbPageMgr() throws IOException {
-        return new PdfLayoutMgr(PDDeviceRGB.INSTANCE, null);
+        return new PdfLayoutMgr(PDDeviceRGB.INSTANCE, null, DocOptions.DEFAULT);
     }
 
     /** Returns the page width given the defined PDRectangle pageSize */
@@ -428,19 +456,81 @@ public class PdfLayoutMgr {
             // page until it's in the printable area.
             idx++;
             if (pages.size() <= idx) {
-                pages.add(new PageBuffer(pages.size() + 1));
+                pages.add(new PageBuffer(pages.size() + 1, styles));
             }
         }
         PageBuffer ps = pages.get(idx);
         return new LogicalPage.PageBufferAndY(ps, y);
     }
 
+    /**
+     Loads a TrueType font for use in this document's TextStyles.  Unlike the standard
+     PDType1Fonts, it can show any character it has a glyph for, not just WinAnsi.  Only the
+     glyphs actually used are embedded in the PDF (PDFBox subsets the font when the document is
+     saved), so even a large CJK font only adds what the document needs.  The font belongs to this
+     document and must not be used with any other.  If you make a lot of documents with the same
+     font, a {@link FontRegistry} only parses it once.
+     @param ttf a TrueType (.ttf) font file
+     @return the font, to pass to TextStyle.of()
+     */
+    public PDType0Font loadTrueTypeFont(File ttf) throws IOException {
+        return PDType0Font.load(doc, ttf);
+    }
+
+    /**
+     Loads a TrueType font for use in this document's TextStyles, like
+     {@link #loadTrueTypeFont(File)}.  The stream is read to the end.
+     @param ttf a TrueType font
+     @return the font, to pass to TextStyle.of()
+     */
+    public PDType0Font loadTrueTypeFont(InputStream ttf) throws IOException {
+        return PDType0Font.load(doc, ttf);
+    }
+
     /**
     Call this to commit the PDF information to the underlying stream after it is completely built.
     */
     public void save(OutputStream os) throws IOException {
-        doc.save(os);
+        final long start = System.nanoTime();
+        for (DeferredImage di : deferredImages.values()) {
+            if (options.imageExecutor() == null) {
+                di.embed(doc, options.maxImageDpi());
+            } else {
+                embedLater(di);
+            }
+        }
+        deferredImages.clear();
+        awaitImages();
+        if (deflater != null) {
+            contentStreamBytes += deflater.attachFinished(true);
+        }
+        CountingOutputStream cos = new CountingOutputStream(os);
+        doc.save(cos);
         doc.close();
+        bytesWritten = cos.count;
+        saveNanos = System.nanoTime() - start;
+    }
+
+    /**
+     Returns how many pages have been committed and how big they are, plus (after save()) how big
+     the PDF was and how long it took to write.
+     */
+    public DocStats stats() {
+        return DocStats.of(committedPages, embeddedImages, contentStreamBytes, bytesWritten,
+                           saveNanos, options);
+    }
+
+    private static class CountingOutputStream extends OutputStream {
+        private final OutputStream os;
+        long count = 0;
+        CountingOutputStream(OutputStream o) { os = o; }
+        @Override public void write(int b) throws IOException { os.write(b); count++; }
+        @Override public void write(byte[] bytes, int off, int len) throws IOException {
+            os.write(bytes, off, len);
+            count += len;
+        }
+        @Override public void flush() throws IOException { os.flush(); }
+        @Override public void close() throws IOException { os.close(); }
     }
 
     // TODO: Add logicalPage() method and call pages.add() lazily for the first item actually shown on a page, and logicalPageEnd called before a save.
@@ -451,7 +541,7 @@ public class PdfLayoutMgr {
      */
     @SuppressWarnings("UnusedDeclaration") // Part of end-user public interface
     public LogicalPage logicalPageStart(LogicalPage.Orientation o) {
-        PageBuffer pb = new PageBuffer(pages.size() + 1);
+        PageBuffer pb = new PageBuffer(pages.size() + 1, styles);
         pages.add(pb);
         return LogicalPage.of(this, o);
     }
@@ -476,31 +566,41 @@ public class PdfLayoutMgr {
      */
     @SuppressWarnings("UnusedDeclaration") // Part of end-user public interface
     void logicalPageEnd(LogicalPage lp) throws IOException {
+        // Not strictly necessary (pages only refer to the images), but it doesn't let encoding get
+        // far behind layout, and any exception comes from the commit that drew the image.
+        awaitImages();
+        if ( (options.pageExecutor() != null) && ((pages.size() - unCommittedPageIdx) > 1) ) {
+            commitPagesConcurrently(lp);
+            return;
+        }
 
         // Write out all uncommitted pages.
         while (unCommittedPageIdx < pages.size()) {
-            PDPage pdPage = new PDPage(pageSize);
-            if (lp.orientation() == LogicalPage.Orientation.LANDSCAPE) {
-                pdPage.setRotation(90);
-            }
+            PDPage pdPage = newPdPage(lp);
             PDPageContentStream stream = null;
             try {
-                stream = new PDPageContentStream(doc, pdPage);
+                // If we're deflating the content ourselves, have PDFBox leave it uncompressed.
+                stream = new PDPageContentStream(doc, pdPage,
+                                                 PDPageContentStream.AppendMode.OVERWRITE,
+                                                 deflater == null);
                 doc.addPage(pdPage);
 
-                if (lp.orientation() == LogicalPage.Orientation.LANDSCAPE) {
-                    stream.transform(new Matrix(0, 1, -1, 0, lp.pageWidth(), 0));
-                }
-                stream.setStrokingColor(colorSpace.getInitialColor());
-                stream.setNonStrokingColor(colorSpace.getInitialColor());
-
-                PageBuffer pb = pages.get(unCommittedPageIdx);
-                pb.commit(stream);
-                lp.commitBorderItems(stream);
+                writePage(lp, pages.get(unCommittedPageIdx), stream, GraphicsState.of(stream));
+                // Nothing looks at a page after it's committed.
+                pages.set(unCommittedPageIdx, null);
 
                 stream.close();
                 // Set to null to show that no exception was thrown and no need to close again.
                 stream = null;
+                COSBase contents = pdPage.getCOSObject().getDictionaryObject(COSName.CONTENTS);
+                if (contents instanceof COSStream) {
+                    if (deflater == null) {
+                        contentStreamBytes += ((COSStream) contents).getLength();
+                    } else {
+                        contentStreamBytes += deflater.add((COSStream) contents);
+                    }
+                }
+                committedPages++;
             } finally {
                 // Let it throw an exception if the closing doesn't work.
                 if (stream != null) {
@@ -511,6 +611,80 @@ public class PdfLayoutMgr {
         }
     }
 
+    private PDPage newPdPage(LogicalPage lp) {
+        PDPage pdPage = new PDPage(pageSize);
+        if (lp.orientation() == LogicalPage.Orientation.LANDSCAPE) {
+            pdPage.setRotation(90);
+        }
+        return pdPage;
+    }
+
+    /** Writes everything on one page to its content stream. */
+    private void writePage(LogicalPage lp, PageBuffer pb, PDPageContentStream stream,
+                           GraphicsState gs) throws IOException {
+        if (lp.orientation() == LogicalPage.Orientation.LANDSCAPE) {
+            stream.transform(new Matrix(0, 1, -1, 0, lp.pageWidth(), 0));
+        }
+        stream.setStrokingColor(colorSpace.getInitialColor());
+        stream.setNonStrokingColor(colorSpace.getInitialColor());
+
+        // Only writes colors, fonts, etc. when they change from one item to the next.
+        pb.commit(gs);
+        lp.commitBorderItems(gs);
+        gs.endText();
+    }
+
+    /**
+     Writes (and deflates) each uncommitted page on the pageExecutor, then adds them to the
+     document in order.  PDFBox's COSDocument keeps its streams in an unsynchronized list, so each
+     page's content stream is created here, on the committing thread.  After that, the tasks only
+     write operators to their own stream (PDFBox's scratch file does its own locking) and refer to
+     the fonts, images, and forms they draw, which all exist before this point.
+     */
+    private void commitPagesConcurrently(final LogicalPage lp) throws IOException {
+        lp.prepareBorderItems();
+        final int level = options.compressionLevel();
+        final boolean deflate = (deflater != null);
+        List<PDPage> pdPages = new ArrayList<PDPage>();
+        List<Future<Long>> contentBytes = new ArrayList<Future<Long>>();
+        for (int i = unCommittedPageIdx; i < pages.size(); i++) {
+            final PageBuffer pb = pages.get(i);
+            final PDPage pdPage = newPdPage(lp);
+            final PDPageContentStream stream =
+                    new PDPageContentStream(doc, pdPage, PDPageContentStream.AppendMode.OVERWRITE,
+                                            !deflate);
+            FutureTask<Long> task = new FutureTask<Long>(new Callable<Long>() {
+                @Override public Long call() throws IOException {
+                    try {
+                        writePage(lp, pb, stream, GraphicsState.concurrent(stream, doc));
+                    } finally {
+                        stream.close();
+                    }
+                    COSStream contents = (COSStream) pdPage.getCOSObject()
+                                                           .getDictionaryObject(COSName.CONTENTS);
+                    if (deflate) {
+                        return ContentDeflater.attach(
+                                contents, ContentDeflater.deflate(ContentDeflater.readAll(contents),
+                                                                  level));
+                    }
+                    return contents.getLength();
+                }
+            });
+            options.pageExecutor().execute(task);
+            pdPages.add(pdPage);
+            contentBytes.add(task);
+        }
+
+        for (int i = 0; i < pdPages.size(); i++) {
+            contentStreamBytes += Utils.get(contentBytes.get(i), "page content");
+            doc.addPage(pdPages.get(i));
+            // Nothing looks at a page after it's committed.
+            pages.set(unCommittedPageIdx, null);
+            committedPages++;
+            unCommittedPageIdx++;
+        }
+    }
+
     @Override
     public boolean equals(Object other) {
         // First, the obvious...
@@ -556,7 +730,14 @@ public class PdfLayoutMgr {
     // http://en.wikipedia.org/wiki/Windows-1252
     // It has a lot in common with ISO-8859-1, but it defines some additional characters such as
     // the Euro symbol.
-    private static final Map<String,String> utf16ToWinAnsi;
+    //
+    // Replacements are looked up by character in a two-level table: the high byte of the char
+    // picks a page of 256 entries (null if that page has no replacements) and the low byte picks
+    // the replacement (null if there isn't one).  This only takes a few KB since just a handful of
+    // pages are used.
+    private static final String[][] utf16ToWinAnsi = new String[256][];
+    // Used for any character with no WinAnsi equivalent.
+    private static final String WIN_ANSI_REPLACEMENT;
     static {
         Map<String,String> tempMap = new HashMap<String,String>();
 
@@ -859,14 +1040,43 @@ public class PdfLayoutMgr {
         } catch (UnsupportedEncodingException uee) {
             throw new IllegalStateException("Problem creating translation table due to Unsupported Encoding (coding error)", uee);
         }
-        utf16ToWinAnsi = Collections.unmodifiableMap(tempMap);
+        for (Map.Entry<String,String> entry : tempMap.entrySet()) {
+            char c = entry.getKey().charAt(0);
+            String[] page = utf16ToWinAnsi[c >>> 8];
+            if (page == null) {
+                page = new String[256];
+                utf16ToWinAnsi[c >>> 8] = page;
+            }
+            page[c & 0xff] = entry.getValue();
+        }
+        WIN_ANSI_REPLACEMENT = tempMap.get(UNICODE_BULLET);
     }
 
-
-    // private static final Pattern whitespacePattern = Pattern.compile("\\p{Z}+");
     // What about \u00ba??
     // \u00a0-\u00a9 \u00ab-\u00b9 \u00bb-\u00bf \u00d7 \u00f7
-    private static final Pattern nonAsciiPattern = Pattern.compile("[^\u0000-\u00ff]");
+    /** Returns what to substitute for a character above \u00ff. */
+    private static String winAnsiReplacement(char c) {
+        String[] page = utf16ToWinAnsi[c >>> 8];
+        String s = (page == null) ? null : page[c & 0xff];
+
+        // "In WinAnsiEncoding, all unused codes greater than 40 map to the bullet character."
+        // source: PDF spec, Annex D.3 PDFDocEncoding Character Set p. 656 footnote about
+        // WinAnsiEncoding.
+        //
+        // I think the bullet is the closest thing to a "replacement character" in the
+        // WinAnsi character set, so that's what I'll use it for.  It looks tons better than
+        // nullnullnull...
+        return (s == null) ? WIN_ANSI_REPLACEMENT : s;
+    }
+
+    /**
+     Returns the number of chars in the input that translate to one replacement, starting at idx:
+     2 for a surrogate pair (a single character outside the Basic Multilingual Plane), otherwise 1.
+     */
+    private static int winAnsiCharCount(CharSequence in, int idx) {
+        return ( Character.isHighSurrogate(in.charAt(idx)) && (idx + 1 < in.length()) &&
+                 Character.isLowSurrogate(in.charAt(idx + 1)) ) ? 2 : 1;
+    }
 
     /**
      <p>PDF files are limited to the 217 characters of Windows-1252 which the PDF spec calls WinAnsi
@@ -890,47 +1100,83 @@ public class PdfLayoutMgr {
      to happen before line breaking), but is available externally in case you wish to use it
      directly with PDFBox.</p>
 
+     <p>A string which is already all Windows-1252 is returned as-is without copying it.</p>
+
      @param in a string in the standard Java UTF-16 encoding
      @return a string in Windows-1252 (informally called ISO-8859-1 or WinAnsi)
      */
     public static String convertJavaStringToWinAnsi(String in) {
-//        ByteBuffer bb = StandardCharsets.UTF_16.encode(CharBuffer.wrap(in));
-//        // then decode those bytes as US-ASCII
-//        return StandardCharsets.ISO_8859_1.decode(bb).toString();
-        // return java.nio.charset.StandardCharsets.ISO_8859_1.encode(in);
-
-        Matcher m = nonAsciiPattern.matcher(in);
-
-        StringBuilder sB = new StringBuilder();
+        final int len = in.length();
         int idx = 0;
-        while (m.find()) {
-
-            int start = m.start(); // first character of match.
-            if (idx < start) {
-                // Append everything from the last match up to this one.
-                sB.append(in.subSequence(idx, start));
+        while ( (idx < len) && (in.charAt(idx) <= '\u00ff') ) {
+            idx++;
+        }
+        // Nothing to translate.
+        if (idx == len) { return in; }
+
+        StringBuilder sB = new StringBuilder(len + 16);
+        sB.append(in, 0, idx);
+        while (idx < len) {
+            char c = in.charAt(idx);
+            if (c <= '\u00ff') {
+                sB.append(c);
+                idx++;
+            } else {
+                sB.append(winAnsiReplacement(c));
+                idx += winAnsiCharCount(in, idx);
             }
+        }
+        return sB.toString();
+    }
 
-            String s = utf16ToWinAnsi.get(m.group());
-
-            // "In WinAnsiEncoding, all unused codes greater than 40 map to the bullet character."
-            // source: PDF spec, Annex D.3 PDFDocEncoding Character Set p. 656 footnote about
-            // WinAnsiEncoding.
-            //
-            // I think the bullet is the closest thing to a "replacement character" in the
-            // WinAnsi character set, so that's what I'll use it for.  It looks tons better than
-            // nullnullnull...
-            if (s == null) {
-                s = utf16ToWinAnsi.get(UNICODE_BULLET);
+    /**
+     The length of convertJavaStringToWinAnsi(in), without building it.  Use this to size the
+     buffer for {@link #convertJavaStringToWinAnsi(CharSequence, char[], int)}.
+     */
+    public static int winAnsiLength(CharSequence in) {
+        final int len = in.length();
+        int outLen = 0;
+        int idx = 0;
+        while (idx < len) {
+            char c = in.charAt(idx);
+            if (c <= '\u00ff') {
+                outLen++;
+                idx++;
+            } else {
+                outLen += winAnsiReplacement(c).length();
+                idx += winAnsiCharCount(in, idx);
             }
-            sB.append(s);
-
-            idx = m.end(); // m.end() is exclusive
         }
-        if (idx < in.length()) {
-            sB.append(in.subSequence(idx, in.length()));
+        return outLen;
+    }
+
+    /**
+     Transliterates like {@link #convertJavaStringToWinAnsi(String)}, but writes into a buffer you
+     supply (and can reuse) instead of making a new String.
+     @param in a string in the standard Java UTF-16 encoding
+     @param out the buffer to write the Windows-1252 characters into
+     @param outOffset where in the buffer to start writing
+     @return the number of characters written
+     @throws IndexOutOfBoundsException if the buffer is too small.  {@link #winAnsiLength(CharSequence)}
+     tells you how much room you need.
+     */
+    public static int convertJavaStringToWinAnsi(CharSequence in, char[] out, int outOffset) {
+        final int len = in.length();
+        int o = outOffset;
+        int idx = 0;
+        while (idx < len) {
+            char c = in.charAt(idx);
+            if (c <= '\u00ff') {
+                out[o++] = c;
+                idx++;
+            } else {
+                String s = winAnsiReplacement(c);
+                s.getChars(0, s.length(), out, o);
+                o += s.length();
+                idx += winAnsiCharCount(in, idx);
+            }
         }
-        return sB.toString();
+        return o - outOffset;
     }
     
     public void protect(ProtectionPolicy policy) throws IOException {
@@ -0,0 +1,171 @@
+// Copyright 2026-10-15 PlanBase Inc. & Glen Peterson
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.planbase.pdf.layoutmanager;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSInteger;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.graphics.color.PDColorSpace;
+import org.apache.pdfbox.pdmodel.graphics.color.PDDeviceCMYK;
+import org.apache.pdfbox.pdmodel.graphics.color.PDDeviceGray;
+import org.apache.pdfbox.pdmodel.graphics.color.PDDeviceRGB;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+/**
+ The bytes of a JPEG file, with just enough of its header read to embed it in a PDF as-is (PDF
+ viewers decode DCTDecode images themselves).  Nothing is decompressed.  Immutable (please don't
+ change the bytes you pass in).
+ */
+final class RawJpeg {
+    private final byte[] bytes;
+    private final int width;
+    private final int height;
+    private final int components;
+    // Adobe (APP14) CMYK JPEGs store the ink values inverted.
+    private final boolean adobe;
+
+    private RawJpeg(byte[] b, int w, int h, int c, boolean a) {
+        bytes = b; width = w; height = h; components = c; adobe = a;
+    }
+
+    /**
+     Reads the image size and number of color components from the JPEG's frame header.
+     @throws IllegalArgumentException if the bytes aren't a JPEG that PDF can display.
+     */
+    static RawJpeg of(byte[] bytes) {
+        if ( (bytes.length < 4) || (u8(bytes, 0) != 0xFF) || (u8(bytes, 1) != 0xD8) ) {
+            throw new IllegalArgumentException("Not a JPEG (no start of image marker)");
+        }
+        boolean adobe = false;
+        int i = 2;
+        while (i + 4 <= bytes.length) {
+            if (u8(bytes, i) != 0xFF) {
+                throw new IllegalArgumentException("Bad JPEG marker at byte " + i);
+            }
+            int marker = u8(bytes, i + 1);
+            i += 2;
+            if (marker == 0xFF) {
+                // Fill byte: the marker is the next byte.
+                i--;
+                continue;
+            }
+            if ( (marker == 0x01) || ((marker >= 0xD0) && (marker <= 0xD8)) ) {
+                // No length or parameters.
+                continue;
+            }
+            if ( (marker == 0xD9) || (marker == 0xDA) ) {
+                // End of image or start of scan before any frame header.
+                break;
+            }
+            int length = u16(bytes, i);
+            if ( (marker == 0xEE) && (length >= 7) && (i + 7 <= bytes.length) &&
+                 (bytes[i + 2] == 'A') && (bytes[i + 3] == 'd') && (bytes[i + 4] == 'o') &&
+                 (bytes[i + 5] == 'b') && (bytes[i + 6] == 'e') ) {
+                adobe = true;
+            }
+            if ( (marker >= 0xC0) && (marker <= 0xCF) &&
+                 (marker != 0xC4) && (marker != 0xC8) && (marker != 0xCC) ) {
+                return frame(bytes, marker, i, adobe);
+            }
+            i += length;
+        }
+        throw new IllegalArgumentException("JPEG has no frame header");
+    }
+
+    private static RawJpeg frame(byte[] bytes, int marker, int i, boolean adobe) {
+        // Baseline, extended sequential, and progressive Huffman-coded JPEGs are what PDF's
+        // DCTDecode filter supports.
+        if (marker > 0xC2) {
+            throw new IllegalArgumentException("Unsupported JPEG process: SOF" + (marker - 0xC0));
+        }
+        if (i + 8 > bytes.length) {
+            throw new IllegalArgumentException("JPEG frame header is cut off");
+        }
+        int precision = u8(bytes, i + 2);
+        int height = u16(bytes, i + 3);
+        int width = u16(bytes, i + 5);
+        int components = u8(bytes, i + 7);
+        if (precision != 8) {
+            throw new IllegalArgumentException("Unsupported JPEG precision: " + precision + " bits");
+        }
+        if ( (width < 1) || (height < 1) ) {
+            throw new IllegalArgumentException("JPEG size not in frame header: " + width + "x" +
+                                               height);
+        }
+        if ( (components != 1) && (components != 3) && (components != 4) ) {
+            throw new IllegalArgumentException("Unsupported number of JPEG color components: " +
+                                               components);
+        }
+        return new RawJpeg(bytes, width, height, components, adobe);
+    }
+
+    private static int u8(byte[] bs, int i) { return bs[i] & 0xFF; }
+
+    private static int u16(byte[] bs, int i) {
+        if (i + 2 > bs.length) {
+            throw new IllegalArgumentException("JPEG is cut off at byte " + i);
+        }
+        return (u8(bs, i) << 8) | u8(bs, i + 1);
+    }
+
+    /** Width in pixels */
+    int width() { return width; }
+    /** Height in pixels */
+    int height() { return height; }
+
+    ImageDigest digest() { return ImageDigest.of(width, height, "JPEG", bytes); }
+
+    /** Embeds the JPEG data as-is in the given document. */
+    PDImageXObject toImage(PDDocument doc) throws IOException {
+        PDColorSpace cs = (components == 1) ? PDDeviceGray.INSTANCE :
+                          (components == 3) ? PDDeviceRGB.INSTANCE :
+                                              PDDeviceCMYK.INSTANCE;
+        PDImageXObject img = new PDImageXObject(doc, new ByteArrayInputStream(bytes),
+                                                COSName.DCT_DECODE, width, height, 8, cs);
+        if ( (components == 4) && adobe ) {
+            COSArray decode = new COSArray();
+            for (int c = 0; c < 4; c++) {
+                decode.add(COSInteger.ONE);
+                decode.add(COSInteger.ZERO);
+            }
+            img.setDecode(decode);
+        }
+        return img;
+    }
+
+    /**
+     Decodes the JPEG, only for when the pixels have to change (like shrinking the image).
+     @return the image, or null if ImageIO can't decode it (e.g. CMYK).
+     */
+    BufferedImage decode() {
+        try {
+            return ImageIO.read(new ByteArrayInputStream(bytes));
+        } catch (IOException ioe) {
+            return null;
+        }
+    }
+
+    @Override public String toString() {
+        return "RawJpeg(" + width + "x" + height + " components=" + components + " bytes=" +
+               bytes.length + ")";
+    }
+}
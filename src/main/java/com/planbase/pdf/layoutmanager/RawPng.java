@@ -0,0 +1,292 @@
+// Copyright 2026-10-15 PlanBase Inc. & Glen Peterson
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.planbase.pdf.layoutmanager;
+
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.graphics.color.PDDeviceGray;
+import org.apache.pdfbox.pdmodel.graphics.color.PDDeviceRGB;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ <p>The compressed pixels of a PNG file.  PNG's image data (the IDAT chunks) is a zlib stream of
+ rows that each start with a PNG predictor byte, which is exactly what a PDF FlateDecode filter
+ with /Predictor 15 reads.  So for the simple kinds of PNG, the data can go into the PDF without
+ being decompressed and compressed again.  Immutable.</p>
+
+ <p>Only 8-bit gray or RGB, non-interlaced PNGs without transparency work that way.  Palettes,
+ alpha channels, 16 bits, transparent colors (tRNS), and interlacing all need the pixels
+ decoded.</p>
+ */
+final class RawPng {
+    private static final byte[] SIGNATURE = new byte[] { (byte) 0x89, 'P', 'N', 'G', '\r', '\n',
+                                                         0x1A, '\n' };
+    private static final int GRAY = 0;
+    private static final int RGB = 2;
+
+    // The IDAT chunks, concatenated.
+    private final byte[] idat;
+    private final int width;
+    private final int height;
+    private final int colorType;
+
+    private RawPng(byte[] d, int w, int h, int ct) {
+        idat = d; width = w; height = h; colorType = ct;
+    }
+
+    /**
+     Reads the PNG's chunks and keeps the image data.
+     @return the image data, or null if this is a kind of PNG that needs to be decoded.
+     @throws IllegalArgumentException if the bytes aren't a PNG file.
+     */
+    static RawPng of(byte[] bytes) {
+        if (bytes.length < SIGNATURE.length + 25) {
+            throw new IllegalArgumentException("Not a PNG (too short)");
+        }
+        for (int i = 0; i < SIGNATURE.length; i++) {
+            if (bytes[i] != SIGNATURE[i]) {
+                throw new IllegalArgumentException("Not a PNG (no PNG signature)");
+            }
+        }
+        int width = 0;
+        int height = 0;
+        int colorType = -1;
+        ByteArrayOutputStream idat = new ByteArrayOutputStream(bytes.length);
+        int i = SIGNATURE.length;
+        while (i + 8 <= bytes.length) {
+            int length = u32(bytes, i);
+            int data = i + 8;
+            if ( (length < 0) || (data + length + 4 > bytes.length) ) {
+                throw new IllegalArgumentException("PNG is cut off at byte " + i);
+            }
+            // Chunk types are 4 ASCII letters.
+            String type = new String(new char[] { (char) bytes[i + 4], (char) bytes[i + 5],
+                                                  (char) bytes[i + 6], (char) bytes[i + 7] });
+            if ("IHDR".equals(type)) {
+                if (length < 13) { throw new IllegalArgumentException("PNG header is too short"); }
+                width = u32(bytes, data);
+                height = u32(bytes, data + 4);
+                int bitDepth = bytes[data + 8];
+                colorType = bytes[data + 9];
+                int compression = bytes[data + 10];
+                int filter = bytes[data + 11];
+                int interlace = bytes[data + 12];
+                if ( (bitDepth != 8) || ((colorType != GRAY) && (colorType != RGB)) ||
+                     (compression != 0) || (filter != 0) || (interlace != 0) ) {
+                    return null;
+                }
+            } else if ("tRNS".equals(type)) {
+                // A transparent color would need a mask.
+                return null;
+            } else if ("IDAT".equals(type)) {
+                idat.write(bytes, data, length);
+            } else if ("IEND".equals(type)) {
+                break;
+            }
+            // Skip the data and the CRC.
+            i = data + length + 4;
+        }
+        if ( (colorType < 0) || (idat.size() == 0) || (width < 1) || (height < 1) ) {
+            throw new IllegalArgumentException("PNG has no header or no image data");
+        }
+        return new RawPng(idat.toByteArray(), width, height, colorType);
+    }
+
+    /**
+     Makes PNG image data from a gray (TYPE_BYTE_GRAY) or opaque RGB image, e.g. one that was
+     decoded from a RawPng and shrunk.  Gray samples are copied as-is.
+     */
+    static RawPng of(BufferedImage bi) {
+        int w = bi.getWidth();
+        int h = bi.getHeight();
+        boolean gray = bi.getType() == BufferedImage.TYPE_BYTE_GRAY;
+        if ( !gray && bi.getColorModel().hasAlpha() ) {
+            throw new IllegalArgumentException("Can't make PNG image data with transparency");
+        }
+        int colors = gray ? 1 : 3;
+        Deflater deflater = new Deflater();
+        ByteArrayOutputStream idat = new ByteArrayOutputStream();
+        byte[] row = new byte[1 + (w * colors)];
+        int[] pixels = new int[w];
+        byte[] buf = new byte[8192];
+        for (int y = 0; y < h; y++) {
+            // Row filter 0 (None).  It compresses worse than PNG encoders' guesses, but the image
+            // is small by now.
+            row[0] = 0;
+            if (gray) {
+                bi.getRaster().getSamples(0, y, w, 1, 0, pixels);
+                for (int x = 0; x < w; x++) {
+                    row[1 + x] = (byte) pixels[x];
+                }
+            } else {
+                bi.getRGB(0, y, w, 1, pixels, 0, w);
+                for (int x = 0, i = 1; x < w; x++) {
+                    int p = pixels[x];
+                    row[i++] = (byte) (p >> 16);
+                    row[i++] = (byte) (p >> 8);
+                    row[i++] = (byte) p;
+                }
+            }
+            deflater.setInput(row);
+            while (!deflater.needsInput()) {
+                idat.write(buf, 0, deflater.deflate(buf));
+            }
+        }
+        deflater.finish();
+        while (!deflater.finished()) {
+            idat.write(buf, 0, deflater.deflate(buf));
+        }
+        deflater.end();
+        return new RawPng(idat.toByteArray(), w, h, gray ? GRAY : RGB);
+    }
+
+    private static int u32(byte[] bs, int i) {
+        return ((bs[i] & 0xFF) << 24) | ((bs[i + 1] & 0xFF) << 16) | ((bs[i + 2] & 0xFF) << 8) |
+               (bs[i + 3] & 0xFF);
+    }
+
+    /** Width in pixels */
+    int width() { return width; }
+    /** Height in pixels */
+    int height() { return height; }
+
+    private int colors() { return (colorType == GRAY) ? 1 : 3; }
+
+    ImageDigest digest() { return ImageDigest.of(width, height, "PNG " + colors(), idat); }
+
+    /** Embeds the PNG image data as-is in the given document. */
+    PDImageXObject toImage(PDDocument doc) throws IOException {
+        PDImageXObject img = new PDImageXObject(doc, new ByteArrayInputStream(idat),
+                                                COSName.FLATE_DECODE, width, height, 8,
+                                                (colorType == GRAY) ? PDDeviceGray.INSTANCE
+                                                                    : PDDeviceRGB.INSTANCE);
+        COSDictionary decodeParms = new COSDictionary();
+        // 15 means the predictor can be different on each row, as in PNG.
+        decodeParms.setInt(COSName.PREDICTOR, 15);
+        decodeParms.setInt(COSName.COLORS, colors());
+        decodeParms.setInt(COSName.BITS_PER_COMPONENT, 8);
+        decodeParms.setInt(COSName.COLUMNS, width);
+        img.getCOSObject().setItem(COSName.DECODE_PARMS, decodeParms);
+        return img;
+    }
+
+    /**
+     Decodes the image data: TYPE_BYTE_GRAY with the PNG's own samples, or TYPE_INT_RGB.  Only for
+     when the pixels have to change (like shrinking the image).
+     @throws IllegalArgumentException if the image data is corrupt.
+     */
+    BufferedImage decode() {
+        int colors = colors();
+        int stride = width * colors;
+        byte[] prev = new byte[stride];
+        byte[] cur = new byte[stride];
+        BufferedImage bi = new BufferedImage(width, height,
+                                             (colorType == GRAY) ? BufferedImage.TYPE_BYTE_GRAY
+                                                                 : BufferedImage.TYPE_INT_RGB);
+        int[] pixels = new int[width];
+        Inflater inflater = new Inflater();
+        inflater.setInput(idat);
+        byte[] filter = new byte[1];
+        try {
+            for (int y = 0; y < height; y++) {
+                inflateFully(inflater, filter);
+                inflateFully(inflater, cur);
+                unfilter(filter[0], cur, prev, colors);
+                if (colorType == GRAY) {
+                    for (int x = 0; x < width; x++) {
+                        pixels[x] = cur[x] & 0xFF;
+                    }
+                    bi.getRaster().setSamples(0, y, width, 1, 0, pixels);
+                } else {
+                    for (int x = 0, i = 0; x < width; x++, i += 3) {
+                        pixels[x] = ((cur[i] & 0xFF) << 16) | ((cur[i + 1] & 0xFF) << 8) |
+                                    (cur[i + 2] & 0xFF);
+                    }
+                    bi.setRGB(0, y, width, 1, pixels, 0, width);
+                }
+                byte[] temp = prev;
+                prev = cur;
+                cur = temp;
+            }
+        } catch (DataFormatException dfe) {
+            throw new IllegalArgumentException("Corrupt PNG image data", dfe);
+        } finally {
+            inflater.end();
+        }
+        return bi;
+    }
+
+    private static void inflateFully(Inflater inflater, byte[] bs) throws DataFormatException {
+        int n = 0;
+        while (n < bs.length) {
+            int got = inflater.inflate(bs, n, bs.length - n);
+            if ( (got == 0) && (inflater.finished() || inflater.needsInput()) ) {
+                throw new IllegalArgumentException("PNG image data is cut off");
+            }
+            n += got;
+        }
+    }
+
+    /** Undoes a PNG row filter in place.  bpp is bytes per pixel. */
+    private static void unfilter(int type, byte[] cur, byte[] prev, int bpp) {
+        switch (type) {
+            case 0: break;
+            case 1:
+                for (int i = bpp; i < cur.length; i++) {
+                    cur[i] += cur[i - bpp];
+                }
+                break;
+            case 2:
+                for (int i = 0; i < cur.length; i++) {
+                    cur[i] += prev[i];
+                }
+                break;
+            case 3:
+                for (int i = 0; i < cur.length; i++) {
+                    int left = (i < bpp) ? 0 : (cur[i - bpp] & 0xFF);
+                    cur[i] += (left + (prev[i] & 0xFF)) >> 1;
+                }
+                break;
+            case 4:
+                for (int i = 0; i < cur.length; i++) {
+                    int a = (i < bpp) ? 0 : (cur[i - bpp] & 0xFF);
+                    int b = prev[i] & 0xFF;
+                    int c = (i < bpp) ? 0 : (prev[i - bpp] & 0xFF);
+                    int p = a + b - c;
+                    int pa = Math.abs(p - a);
+                    int pb = Math.abs(p - b);
+                    int pc = Math.abs(p - c);
+                    cur[i] += ((pa <= pb) && (pa <= pc)) ? a : (pb <= pc) ? b : c;
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown PNG row filter: " + type);
+        }
+    }
+
+    @Override public String toString() {
+        return "RawPng(" + width + "x" + height + " colors=" + colors() + " bytes=" + idat.length +
+               ")";
+    }
+}
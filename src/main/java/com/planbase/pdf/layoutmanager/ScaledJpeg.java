@@ -15,6 +15,9 @@
 package com.planbase.pdf.layoutmanager;
 
 import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 
 /**
  Represents a Jpeg image and the document units it should be scaled to.  When a ScaledJpeg is added
@@ -23,19 +26,31 @@ import java.awt.image.BufferedImage;
  the document twice.  Only the additional position and scaling of that image is added.  This
  significantly decreases the file size of the resulting PDF when images are reused within that
  document.
+
+ <p>A ScaledJpeg can also be made from the bytes of a JPEG file.  Then only the JPEG header is read
+ (for the size), and the compressed data goes into the PDF unchanged, without being decoded or
+ re-compressed.  That's faster, uses much less memory, and doesn't lose any more quality.</p>
+
+ <p>For documents with many images, {@link #lazy(File)} reads only the file's header until the
+ image is embedded, then lets go of the bytes and pixels as soon as it's in the PDF.</p>
  */
 public class ScaledJpeg implements Renderable {
     public static final float ASSUMED_IMAGE_DPI = 300f;
     public static final float IMAGE_SCALE = 1f / ASSUMED_IMAGE_DPI * PdfLayoutMgr.DOC_UNITS_PER_INCH;
 
+    // Exactly one of these is not null.
     private final BufferedImage bufferedImage;
+    private final RawJpeg rawJpeg;
+    private final LazyImage lazy;
     private final float width;
     private final float height;
 
-    private ScaledJpeg(BufferedImage bi, float w, float h) {
-        if (w <= 0) { w = bi.getWidth() * IMAGE_SCALE; }
-        if (h <= 0) { h = bi.getHeight() * IMAGE_SCALE; }
-        bufferedImage = bi; width = w; height = h;
+    private ScaledJpeg(BufferedImage bi, RawJpeg r, LazyImage li, float w, float h) {
+        int pixelWidth = (bi != null) ? bi.getWidth() : (r != null) ? r.width() : li.width();
+        int pixelHeight = (bi != null) ? bi.getHeight() : (r != null) ? r.height() : li.height();
+        if (w <= 0) { w = pixelWidth * IMAGE_SCALE; }
+        if (h <= 0) { h = pixelHeight * IMAGE_SCALE; }
+        bufferedImage = bi; rawJpeg = r; lazy = li; width = w; height = h;
     }
 
     /**
@@ -47,7 +62,7 @@ public class ScaledJpeg implements Renderable {
      @return a ScaledJpeg with the given width and height for that image.
      */
     public static ScaledJpeg of(BufferedImage bi, float w, float h) {
-        return new ScaledJpeg(bi, w, h);
+        return new ScaledJpeg(bi, null, null, w, h);
     }
 
     /**
@@ -57,11 +72,96 @@ public class ScaledJpeg implements Renderable {
      @param bi the source BufferedImage
      @return a ScaledJpeg holding the width and height for that image.
      */
-    public static ScaledJpeg of(BufferedImage bi) { return new ScaledJpeg(bi, 0, 0); }
+    public static ScaledJpeg of(BufferedImage bi) { return new ScaledJpeg(bi, null, null, 0, 0); }
+
+    /**
+     Embeds the given JPEG file as-is, displayed at the given size.
+
+     @param jpeg the bytes of a JPEG file (baseline or progressive, 8 bits per component, gray,
+         RGB, or CMYK).  Don't change them afterward.
+     @param w the width in document units
+     @param h the height in document units
+     @return a ScaledJpeg with the given width and height for that image.
+     @throws IllegalArgumentException if the bytes aren't a JPEG that a PDF can contain.
+     */
+    public static ScaledJpeg of(byte[] jpeg, float w, float h) {
+        return new ScaledJpeg(null, RawJpeg.of(jpeg), null, w, h);
+    }
+
+    /**
+     Embeds the given JPEG file as-is, sized from its header assuming that it will print at
+     300 DPI (like {@link #of(BufferedImage)}).
+     @param jpeg the bytes of a JPEG file.  Don't change them afterward.
+     @throws IllegalArgumentException if the bytes aren't a JPEG that a PDF can contain.
+     */
+    public static ScaledJpeg of(byte[] jpeg) { return of(jpeg, 0, 0); }
+
+    /**
+     Reads a JPEG file from the given stream (to the end, without closing it) and embeds it as-is,
+     sized assuming that it will print at 300 DPI.
+     @throws IllegalArgumentException if the bytes aren't a JPEG that a PDF can contain.
+     */
+    public static ScaledJpeg of(InputStream is) throws IOException {
+        return new ScaledJpeg(null, RawJpeg.of(Utils.readAll(is)), null, 0, 0);
+    }
+
+    /**
+     Reads the given JPEG file and embeds it as-is, sized assuming that it will print at 300 DPI.
+     @throws IllegalArgumentException if the file isn't a JPEG that a PDF can contain.
+     */
+    public static ScaledJpeg of(File f) throws IOException {
+        return new ScaledJpeg(null, RawJpeg.of(Utils.readAll(f)), null, 0, 0);
+    }
 
-    /** @return the underlying buffered image */
+    /**
+     Reads just the size of the given JPEG file now, and the rest of it when it's embedded (when the
+     page it's on is committed, or when the document is saved if there's a maxImageDpi).  The file
+     mustn't change in between.  The same file drawn many times is embedded once.
+     @param f a JPEG file
+     @param w the width in document units, or 0 for the file's width at 300 DPI
+     @param h the height in document units, or 0 for the file's height at 300 DPI
+     @throws IllegalArgumentException if ImageIO can't read the file.
+     */
+    public static ScaledJpeg lazy(File f, float w, float h) throws IOException {
+        return new ScaledJpeg(null, null, LazyImage.of(f), w, h);
+    }
+
+    /** Like {@link #lazy(File, float, float)}, sized assuming that it will print at 300 DPI. */
+    public static ScaledJpeg lazy(File f) throws IOException { return lazy(f, 0, 0); }
+
+    /**
+     Like {@link #lazy(File, float, float)}, for a JPEG file that isn't (just) a file.
+     @param source opened once now to read the image's size, and again when it's embedded
+     */
+    public static ScaledJpeg lazy(ImageSource source, float w, float h) throws IOException {
+        return new ScaledJpeg(null, null, LazyImage.of(source), w, h);
+    }
+
+    /**
+     Like {@link #lazy(ImageSource, float, float)}, sized assuming that it will print at 300 DPI.
+     */
+    public static ScaledJpeg lazy(ImageSource source) throws IOException {
+        return lazy(source, 0, 0);
+    }
+
+    /**
+     @return the underlying buffered image, or null if this was made from the bytes of a JPEG file
+     (which are never decoded) or is read lazily.
+     */
     public BufferedImage bufferedImage() { return bufferedImage; }
 
+    /** The JPEG file's bytes and header, or null if this has a BufferedImage or is lazy. */
+    RawJpeg rawJpeg() { return rawJpeg; }
+
+    /** The image file to read when it's embedded, or null. */
+    LazyImage lazy() { return lazy; }
+
+    /** Whatever this image was made from, for identity (or ImageSource equality) comparisons. */
+    Object source() {
+        if (bufferedImage != null) { return bufferedImage; }
+        return (rawJpeg != null) ? rawJpeg : lazy.source();
+    }
+
     public XyDim dimensions() { return XyDim.of(width, height); }
 
     public XyDim calcDimensions(float maxWidth) { return dimensions(); }
@@ -15,6 +15,12 @@
 package com.planbase.pdf.layoutmanager;
 
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.imageio.ImageIO;
 
 /**
  Represents a PNG image and the document units it should be scaled to.  When a ScaledPng is added
@@ -23,19 +29,32 @@ import java.awt.image.BufferedImage;
  the document twice.  Only the additional position and scaling of that image is added.  This
  significantly decreases the file size of the resulting PDF when images are reused within that
  document.
+
+ <p>A ScaledPng can also be made from the bytes of a PNG file.  If it's an 8-bit gray or RGB PNG
+ without transparency or interlacing (most charts and screenshots), its compressed image data goes
+ into the PDF unchanged, without being decoded or re-compressed, which is much faster and uses
+ much less memory.  Any other PNG is decoded as if you'd read it with ImageIO.</p>
+
+ <p>For documents with many images, {@link #lazy(File)} reads only the file's header until the
+ image is embedded, then lets go of the bytes and pixels as soon as it's in the PDF.</p>
  */
 public class ScaledPng implements Renderable {
     public static final float ASSUMED_IMAGE_DPI = 300f;
     public static final float IMAGE_SCALE = 1f / ASSUMED_IMAGE_DPI * PdfLayoutMgr.DOC_UNITS_PER_INCH;
 
+    // Exactly one of these is not null.
     private final BufferedImage bufferedImage;
+    private final RawPng rawPng;
+    private final LazyImage lazy;
     private final float width;
     private final float height;
 
-    private ScaledPng(BufferedImage bi, float w, float h) {
-        if (w <= 0) { w = bi.getWidth() * IMAGE_SCALE; }
-        if (h <= 0) { h = bi.getHeight() * IMAGE_SCALE; }
-        bufferedImage = bi; width = w; height = h;
+    private ScaledPng(BufferedImage bi, RawPng r, LazyImage li, float w, float h) {
+        int pixelWidth = (bi != null) ? bi.getWidth() : (r != null) ? r.width() : li.width();
+        int pixelHeight = (bi != null) ? bi.getHeight() : (r != null) ? r.height() : li.height();
+        if (w <= 0) { w = pixelWidth * IMAGE_SCALE; }
+        if (h <= 0) { h = pixelHeight * IMAGE_SCALE; }
+        bufferedImage = bi; rawPng = r; lazy = li; width = w; height = h;
     }
 
     /**
@@ -47,7 +66,7 @@ public class ScaledPng implements Renderable {
      @return a ScaledPng with the given width and height for that image.
      */
     public static ScaledPng of(BufferedImage bi, float w, float h) {
-        return new ScaledPng(bi, w, h);
+        return new ScaledPng(bi, null, null, w, h);
     }
 
     /**
@@ -57,11 +76,104 @@ public class ScaledPng implements Renderable {
      @param bi the source BufferedImage
      @return a ScaledPng holding the width and height for that image.
      */
-    public static ScaledPng of(BufferedImage bi) { return new ScaledPng(bi, 0, 0); }
+    public static ScaledPng of(BufferedImage bi) { return new ScaledPng(bi, null, null, 0, 0); }
+
+    /**
+     Embeds the given PNG file, displayed at the given size.
+
+     @param png the bytes of a PNG file
+     @param w the width in document units
+     @param h the height in document units
+     @return a ScaledPng with the given width and height for that image.
+     @throws IllegalArgumentException if the bytes aren't a PNG file.
+     */
+    public static ScaledPng of(byte[] png, float w, float h) {
+        RawPng rp = RawPng.of(png);
+        if (rp != null) {
+            return new ScaledPng(null, rp, null, w, h);
+        }
+        BufferedImage bi;
+        try {
+            bi = ImageIO.read(new ByteArrayInputStream(png));
+        } catch (IOException ioe) {
+            throw new IllegalArgumentException("Couldn't decode PNG", ioe);
+        }
+        if (bi == null) {
+            throw new IllegalArgumentException("Couldn't decode PNG");
+        }
+        return new ScaledPng(bi, null, null, w, h);
+    }
+
+    /**
+     Embeds the given PNG file, sized assuming that it will print at 300 DPI (like
+     {@link #of(BufferedImage)}).
+     @param png the bytes of a PNG file
+     @throws IllegalArgumentException if the bytes aren't a PNG file.
+     */
+    public static ScaledPng of(byte[] png) { return of(png, 0, 0); }
+
+    /**
+     Reads a PNG file from the given stream (to the end, without closing it) and embeds it, sized
+     assuming that it will print at 300 DPI.
+     @throws IllegalArgumentException if the bytes aren't a PNG file.
+     */
+    public static ScaledPng of(InputStream is) throws IOException { return of(Utils.readAll(is)); }
+
+    /**
+     Reads the given PNG file and embeds it, sized assuming that it will print at 300 DPI.
+     @throws IllegalArgumentException if the file isn't a PNG file.
+     */
+    public static ScaledPng of(File f) throws IOException { return of(Utils.readAll(f)); }
 
-    /** @return the underlying buffered image */
+    /**
+     Reads just the size of the given PNG file now, and the rest of it when it's embedded (when the
+     page it's on is committed, or when the document is saved if there's a maxImageDpi).  The file
+     mustn't change in between.  The same file drawn many times is embedded once.
+     @param f a PNG file
+     @param w the width in document units, or 0 for the file's width at 300 DPI
+     @param h the height in document units, or 0 for the file's height at 300 DPI
+     @throws IllegalArgumentException if ImageIO can't read the file.
+     */
+    public static ScaledPng lazy(File f, float w, float h) throws IOException {
+        return new ScaledPng(null, null, LazyImage.of(f), w, h);
+    }
+
+    /** Like {@link #lazy(File, float, float)}, sized assuming that it will print at 300 DPI. */
+    public static ScaledPng lazy(File f) throws IOException { return lazy(f, 0, 0); }
+
+    /**
+     Like {@link #lazy(File, float, float)}, for a PNG file that isn't (just) a file.
+     @param source opened once now to read the image's size, and again when it's embedded
+     */
+    public static ScaledPng lazy(ImageSource source, float w, float h) throws IOException {
+        return new ScaledPng(null, null, LazyImage.of(source), w, h);
+    }
+
+    /**
+     Like {@link #lazy(ImageSource, float, float)}, sized assuming that it will print at 300 DPI.
+     */
+    public static ScaledPng lazy(ImageSource source) throws IOException {
+        return lazy(source, 0, 0);
+    }
+
+    /**
+     @return the underlying buffered image, or null if this was made from the bytes of a PNG file
+     that didn't need to be decoded, or is read lazily.
+     */
     public BufferedImage bufferedImage() { return bufferedImage; }
 
+    /** The PNG's image data, or null if this has a BufferedImage or is lazy. */
+    RawPng rawPng() { return rawPng; }
+
+    /** The image file to read when it's embedded, or null. */
+    LazyImage lazy() { return lazy; }
+
+    /** Whatever this image was made from, for identity (or ImageSource equality) comparisons. */
+    Object source() {
+        if (bufferedImage != null) { return bufferedImage; }
+        return (rawPng != null) ? rawPng : lazy.source();
+    }
+
     public XyDim dimensions() { return XyDim.of(width, height); }
 
     public XyDim calcDimensions(float maxWidth) { return dimensions(); }
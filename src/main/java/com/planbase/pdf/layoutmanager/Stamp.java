@@ -0,0 +1,75 @@
+// Copyright 2026-10-15 PlanBase Inc. & Glen Peterson
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.planbase.pdf.layoutmanager;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.graphics.form.PDFormXObject;
+
+import java.io.IOException;
+
+/**
+ A stamped Cell: what it draws, recorded once into one Form XObject per z-index (so a background
+ still goes behind everything else on the page, the way it would if it had been drawn directly),
+ and then placed by reference as many times as needed.  Coordinates in the forms are relative to
+ the bottom-left corner of the cell.  Immutable.
+ */
+final class Stamp {
+    private final float[] zIndexes;
+    private final PDFormXObject[] forms;
+    private final XyDim outerDimensions;
+    // Where the cell's render() returned, relative to its top-left corner.
+    private final XyOffset lowerRight;
+
+    private Stamp(float[] zs, PDFormXObject[] fs, XyDim dim, XyOffset lr) {
+        zIndexes = zs; forms = fs; outerDimensions = dim; lowerRight = lr;
+    }
+
+    /**
+     Makes Form XObjects from what a cell drew, with its top-left corner at (0, outerDimensions.y()).
+     @param recorded what the cell drew
+     @param dim the outer dimensions the cell was rendered with
+     @param renderReturned what the cell's render() returned
+     */
+    static Stamp of(DisplayList recorded, PDDocument doc, XyDim dim, XyOffset renderReturned)
+            throws IOException {
+        // Nothing in a cell should draw outside it except the ends of its border lines, but
+        // clipping off something we missed would be worse than a generous bounding box.
+        float pad = Math.max(dim.x(), dim.y());
+        PDRectangle bbox = new PDRectangle(-pad, -pad, dim.x() + (2 * pad), dim.y() + (2 * pad));
+
+        int n = recorded.numZIndexes();
+        float[] zs = new float[n];
+        PDFormXObject[] fs = new PDFormXObject[n];
+        for (int i = 0; i < n; i++) {
+            zs[i] = recorded.zIndex(i);
+            fs[i] = recorded.toForm(doc, bbox, i, i + 1);
+        }
+        return new Stamp(zs, fs, dim,
+                         XyOffset.of(renderReturned.x(), renderReturned.y() - dim.y()));
+    }
+
+    /**
+     Draws the stamped cell on the given page.
+     @return where the cell's render() would have returned
+     */
+    XyOffset place(PdfLayoutMgr.PageBuffer pb, float left, float topOnPage, float top) {
+        float bottom = topOnPage - outerDimensions.y();
+        for (int i = 0; i < forms.length; i++) {
+            pb.drawForm(left, bottom, forms[i], zIndexes[i]);
+        }
+        return XyOffset.of(left + lowerRight.x(), top + lowerRight.y());
+    }
+}
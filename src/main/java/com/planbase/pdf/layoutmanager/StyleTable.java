@@ -0,0 +1,48 @@
+// Copyright 2026-10-15 PlanBase Inc. & Glen Peterson
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.planbase.pdf.layoutmanager;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ Gives each distinct style (TextStyle, LineStyle, Color) or image in a document a small int id, so
+ that a DisplayList can store an int per drawing operation instead of a reference.  A document
+ typically uses a handful of styles for thousands of operations.  Styles are matched by equals(),
+ so TextStyles (which don't override it) are matched by identity.  Not thread-safe.
+ */
+final class StyleTable {
+    private final Map<Object,Integer> ids = new HashMap<Object,Integer>();
+    private Object[] styles = new Object[16];
+
+    /** Returns the id for this style, giving it a new one if it doesn't have one already. */
+    int id(Object style) {
+        Integer id = ids.get(style);
+        if (id != null) { return id; }
+        int newId = ids.size();
+        if (newId == styles.length) {
+            styles = Arrays.copyOf(styles, newId * 2);
+        }
+        styles[newId] = style;
+        ids.put(style, newId);
+        return newId;
+    }
+
+    /** Returns the style with the given id. */
+    Object get(int id) { return styles[id]; }
+
+    int size() { return ids.size(); }
+}
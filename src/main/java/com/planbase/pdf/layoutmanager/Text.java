@@ -15,9 +15,8 @@
 package com.planbase.pdf.layoutmanager;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Represents styled text kind of like a #Text node in HTML.
@@ -25,9 +24,11 @@ import java.util.Map;
 public class Text implements Renderable {
     private final TextStyle textStyle;
     private final String text;
-    private final Map<Float,WrappedBlock> dims = new HashMap<Float,WrappedBlock>();
+    private final FloatMap<WrappedBlock> dims = new FloatMap<WrappedBlock>();
     private final CellStyle.Align align = CellStyle.DEFAULT_ALIGN;
 
+    private static final String HYPHEN = "-";
+
     private static class WrappedRow {
         String string;
         XyDim rowDim;
@@ -39,7 +40,8 @@ public class Text implements Renderable {
         }
     }
 
-    private static class WrappedBlock {
+    // Package-private so the WrapCache can hold it.  Never changed once it's been wrapped.
+    static class WrappedBlock {
         List<WrappedRow> rows = new ArrayList<WrappedRow>();
         XyDim blockDim;
     }
@@ -72,97 +74,315 @@ public class Text implements Renderable {
             throw new IllegalArgumentException("Can't meaningfully wrap text with a negative width: " + maxWidth);
         }
         WrappedBlock wb = new WrappedBlock();
-        float x = 0;
+        final String text = this.text; //PdfLayoutMgr.convertJavaStringToWinAnsi(this.text);
+
+        int start = skipWhitespace(text, 0);
+        if (start < text.length()) {
+            // Measure every character once up front.  From here on, the width of any candidate
+            // line is a subtraction, and we only make a String for each row we actually keep.
+            final double[] cum = textStyle.cumulativeWidths(text);
+            if (textStyle.lineBreaking() == TextStyle.LineBreaking.TOTAL_FIT) {
+                wrapTotalFit(wb, cum, start, maxWidth);
+            } else {
+                wrapFirstFit(wb, cum, start, maxWidth);
+            }
+        }
+
         float y = 0;
-        float maxX = x;
-        Text txt = this;
-        String row = txt.text(); //PdfLayoutMgr.convertJavaStringToWinAnsi(txt.text());
+        float maxX = 0;
+        for (WrappedRow wr : wb.rows) {
+            y -= textStyle.lineHeight();
+            if (wr.rowDim.x() > maxX) { maxX = wr.rowDim.x(); }
+        }
+//        // Not sure what to do if passed "".  This used to mean to insert a blank line, but I'd
+//        // really like to make that "\n" instead, but don't have the time.  *sigh*
+//        if (y == 0) {
+//            y -= textStyle.lineHeight();
+//        }
+        wb.blockDim = XyDim.of(maxX, 0 - y);
+        dims.put(maxWidth, wb);
+//        System.out.println("\tcalcWidth(" + maxWidth + ") on " + this.toString());
+//        System.out.println("\t\ttext calcDim() blockDim=" + wb.blockDim);
+        return wb.blockDim;
+    }
 
-        String text = substrNoLeadingWhitespace(row, 0);
-        int charWidthGuess = txt.avgCharsForWidth(maxWidth);
+    /**
+     Greedy line breaking: put as many words on each line as will fit, then move on to the next.
+     If the style has a Hyphenator, as much of the next word as will fit is hyphenated onto the
+     end of each line, and words too long for a line by themselves are hyphenated where possible.
+     @param wb the block to add rows to
+     @param cum cumulative character widths for this text
+     @param start the index of the first non-whitespace character
+     @param maxWidth the width to wrap to
+     */
+    private void wrapFirstFit(WrappedBlock wb, double[] cum, int start, final float maxWidth) {
+        final int textLen = text.length();
+        int charWidthGuess = avgCharsForWidth(maxWidth);
+        final Hyphenator hyphenator = textStyle.hyphenator();
+        final float hyphenWidth = (hyphenator == null) ? 0
+                                                       : textStyle.stringWidthInDocUnits(HYPHEN);
 
-        while (text.length() > 0) {
-            int textLen = text.length();
-//            System.out.println("text=[" + text + "] len=" + textLen);
+        while (start < textLen) {
+//            System.out.println("text=[" + text.substring(start) + "] len=" + (textLen - start));
             // Knowing the average width of a character lets us guess and generally be near
             // the word where the line break will occur.  Since the font reports a narrow average,
             // (possibly due to the predominance of spaces in text) we widen it a little for a
             // better first guess.
-            int idx = charWidthGuess;
-            if (idx > textLen) { idx = textLen; }
-            String substr = text.substring(0, idx);
-            float strWidth = textStyle.stringWidthInDocUnits(substr);
+            int end = start + charWidthGuess;
+            if ( (end > textLen) || (end < start) ) { end = textLen; }
+            float strWidth = textStyle.widthInDocUnits(cum, start, end);
 
-//            System.out.println("(strWidth=" + strWidth + " < maxWidth=" + maxWidth + ") && (idx=" + idx + " < textLen=" + textLen + ")");
+//            System.out.println("(strWidth=" + strWidth + " < maxWidth=" + maxWidth + ") && (end=" + end + " < textLen=" + textLen + ")");
             // If too short - find shortest string that is too long.
-            // int idx = idx;
-            // int maxTooShortIdx = -1;
-            while ( (strWidth < maxWidth) && (idx < textLen) ) {
+            while ( (strWidth < maxWidth) && (end < textLen) ) {
 //                System.out.println("find shortest string that is too long");
                 // Consume any whitespace.
-                while ( (idx < textLen) &&
-                        Character.isWhitespace(text.charAt(idx)) ) {
-                    idx++;
+                while ( (end < textLen) &&
+                        Character.isWhitespace(text.charAt(end)) ) {
+                    end++;
                 }
                 // Find last non-whitespace character
-                while ( (idx < textLen) &&
-                        !Character.isWhitespace(text.charAt(idx)) ) {
-                    idx++;
+                while ( (end < textLen) &&
+                        !Character.isWhitespace(text.charAt(end)) ) {
+                    end++;
                 }
                 // Test new width
-                substr = text.substring(0, idx);
-                strWidth = textStyle.stringWidthInDocUnits(substr);
+                strWidth = textStyle.widthInDocUnits(cum, start, end);
             }
 
-            idx--;
-//            System.out.println("(strWidth=" + strWidth + " > maxWidth=" + maxWidth + ") && (idx=" + idx + " > 0)");
+            int idx = end - 1;
+//            System.out.println("(strWidth=" + strWidth + " > maxWidth=" + maxWidth + ") && (idx=" + idx + " > start=" + start + ")");
             // Too long.  Find longest string that is short enough.
-            while ( (strWidth > maxWidth) && (idx > 0) ) {
+            while ( (strWidth > maxWidth) && (idx > start) ) {
 //                System.out.println("find longest string that is short enough");
                 //logger.info("strWidth: " + strWidth + " cell.width: " + cell.width + " idx: " + idx);
                 // Find previous whitespace run
-                while ( (idx > -1) && !Character.isWhitespace(text.charAt(idx)) ) {
+                while ( (idx >= start) && !Character.isWhitespace(text.charAt(idx)) ) {
                     idx--;
                 }
                 // Find last non-whatespace character before whitespace run.
-                while ( (idx > -1) && Character.isWhitespace(text.charAt(idx)) ) {
+                while ( (idx >= start) && Character.isWhitespace(text.charAt(idx)) ) {
                     idx--;
                 }
-                if (idx < 1) {
+                if (idx <= start) {
                     break; // no spaces - have to put whole thing in cell and let it run over.
                 }
                 // Test new width
-                substr = text.substring(0, idx + 1);
-                strWidth = textStyle.stringWidthInDocUnits(substr);
+                end = idx + 1;
+                strWidth = textStyle.widthInDocUnits(cum, start, end);
             }
 
-            wb.rows.add(WrappedRow.of(substr, strWidth, textStyle.lineHeight()));
+            if (hyphenator != null) {
+                // If the row runs over, hyphenate the last word on it.  Otherwise, try to fit the
+                // start of the word that didn't make it onto this row.
+                int wordStart = -1;
+                if (strWidth > maxWidth) {
+                    wordStart = end;
+                    while ( (wordStart > start) &&
+                            !Character.isWhitespace(text.charAt(wordStart - 1)) ) {
+                        wordStart--;
+                    }
+                } else if ( (end < textLen) && Character.isWhitespace(text.charAt(end)) ) {
+                    wordStart = skipWhitespace(text, end);
+                }
+                int hyphenIdx = (wordStart < 0) || (wordStart >= textLen)
+                                ? -1
+                                : lastHyphenThatFits(hyphenator, cum, start, wordStart,
+                                                     maxWidth - hyphenWidth);
+                if (hyphenIdx > start) {
+                    wb.rows.add(WrappedRow.of(text.substring(start, hyphenIdx) + HYPHEN,
+                                              textStyle.widthInDocUnits(cum, start, hyphenIdx) +
+                                              hyphenWidth,
+                                              textStyle.lineHeight()));
+                    start = hyphenIdx;
+                    continue;
+                }
+            }
+
+            wb.rows.add(WrappedRow.of(text.substring(start, end), strWidth, textStyle.lineHeight()));
 //            System.out.println("added row");
-            y -= textStyle.lineHeight();
-//            System.out.println("y=" + y);
 
-            // Chop off section of substring that we just wrote out.
-            text = substrNoLeadingWhitespace(text, substr.length());
-            if (strWidth > maxX) { maxX = strWidth; }
-//            System.out.println("maxX=" + maxX);
+            // Skip past the row we just wrote out.
+            start = skipWhitespace(text, end);
+        }
+    }
+
+    /**
+     Finds the last place the word starting at wordStart can be hyphenated and still fit on a line
+     starting at lineStart.
+     @param maxWidth the width available for the line, not counting the hyphen
+     @return the index in the text to break at (the hyphen goes before it), or -1 if the word can't
+     be hyphenated to fit.
+     */
+    private int lastHyphenThatFits(Hyphenator hyphenator, double[] cum, int lineStart,
+                                   int wordStart, float maxWidth) {
+        int[] hyphenIdxs = hyphenIndices(hyphenator, wordStart);
+        for (int i = hyphenIdxs.length - 1; i >= 0; i--) {
+            if (textStyle.widthInDocUnits(cum, lineStart, hyphenIdxs[i]) <= maxWidth) {
+                return hyphenIdxs[i];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     Returns the indices in the text where the word starting at wordStart can be hyphenated, in
+     increasing order.  Only the letters of the word are hyphenated, so punctuation before or after
+     them stays put.
+     */
+    private int[] hyphenIndices(Hyphenator hyphenator, int wordStart) {
+        final int textLen = text.length();
+        int letterStart = wordStart;
+        while ( (letterStart < textLen) && !Character.isWhitespace(text.charAt(letterStart)) &&
+                !Character.isLetter(text.charAt(letterStart)) ) {
+            letterStart++;
+        }
+        int letterEnd = letterStart;
+        while ( (letterEnd < textLen) && Character.isLetter(text.charAt(letterEnd)) ) {
+            letterEnd++;
+        }
+        int[] points = hyphenator.points(text.substring(letterStart, letterEnd));
+        int[] idxs = new int[points.length];
+        for (int i = 0; i < points.length; i++) {
+            idxs[i] = letterStart + points[i];
+        }
+        return idxs;
+    }
+
+    /**
+     Words (or pieces of hyphenated words) per line that wrapTotalFit() will consider.  Lines are
+     also limited by the width, so this only matters for very wide cells, where it keeps the cost of
+     each break linear.
+     */
+    private static final int TOTAL_FIT_MAX_WORDS = 256;
+
+    /**
+     What wrapTotalFit() charges for ending a line with a hyphen, as a fraction of the line width.
+     It's squared like the slack, so a hyphen is only worth it if it saves a line or fixes a line
+     that would otherwise be more than half empty.
+     */
+    private static final double HYPHEN_PENALTY = 0.5;
+
+    /**
+     <p>Total-fit (Knuth-Plass style) line breaking: chooses all the breaks in the paragraph at once
+     instead of one line at a time.  Without justification or hyphenation, first-fit already uses
+     the fewest possible lines, so among the breaks which use that many lines, this picks the one
+     which leaves the least space at the ends of the lines (sum of squared slack, not counting the
+     last line).  The result is a more even right-hand edge.</p>
+
+     <p>If the style has a Hyphenator, each place a word could be hyphenated is another possible
+     line break, with a penalty for using it.  Using fewer lines always wins, then the least slack
+     plus penalties.</p>
+
+     <p>Each possible line end only looks back over the words which could share its line, so this
+     is linear in the number of words, times the number of words on a line.</p>
+
+     @param wb the block to add rows to
+     @param cum cumulative character widths for this text
+     @param start the index of the first non-whitespace character
+     @param maxWidth the width to wrap to
+     */
+    private void wrapTotalFit(WrappedBlock wb, double[] cum, int start, final float maxWidth) {
+        final int textLen = text.length();
+        final Hyphenator hyphenator = textStyle.hyphenator();
+        final float hyphenWidth = (hyphenator == null) ? 0
+                                                       : textStyle.stringWidthInDocUnits(HYPHEN);
+        final double hyphenPenalty = (HYPHEN_PENALTY * maxWidth) * (HYPHEN_PENALTY * maxWidth);
+
+        // Find the words (runs of non-whitespace), split into pieces wherever they can be
+        // hyphenated.  A line can end after any piece.
+        int[] wordStarts = new int[16];
+        int[] wordEnds = new int[16];
+        boolean[] hyphenated = new boolean[16];
+        int numWords = 0;
+        int idx = start;
+        while (idx < textLen) {
+            int wordEnd = idx;
+            while ( (wordEnd < textLen) && !Character.isWhitespace(text.charAt(wordEnd)) ) {
+                wordEnd++;
+            }
+            int[] hyphenIdxs = (hyphenator == null) ? null : hyphenIndices(hyphenator, idx);
+            int numPieces = (hyphenIdxs == null) ? 1 : hyphenIdxs.length + 1;
+            if (numWords + numPieces > wordStarts.length) {
+                int newLen = Math.max(wordStarts.length * 2, numWords + numPieces);
+                wordStarts = Arrays.copyOf(wordStarts, newLen);
+                wordEnds = Arrays.copyOf(wordEnds, newLen);
+                hyphenated = Arrays.copyOf(hyphenated, newLen);
+            }
+            for (int i = 0; i < numPieces; i++) {
+                wordStarts[numWords] = idx;
+                idx = (i < numPieces - 1) ? hyphenIdxs[i] : wordEnd;
+                wordEnds[numWords] = idx;
+                hyphenated[numWords] = (i < numPieces - 1);
+                numWords++;
+            }
+            idx = skipWhitespace(text, idx);
+        }
+
+        // The best way to break the text before word i uses lines[i] lines with a total cost of
+        // costs[i], and the last of those lines starts with word prevs[i].
+        int[] lines = new int[numWords + 1];
+        double[] costs = new double[numWords + 1];
+        int[] prevs = new int[numWords + 1];
+        for (int last = 0; last < numWords; last++) {
+            final int end = last + 1;
+            lines[end] = Integer.MAX_VALUE;
+            final int minFirst = Math.max(0, end - TOTAL_FIT_MAX_WORDS);
+            for (int first = last; first >= minFirst; first--) {
+                float width = textStyle.widthInDocUnits(cum, wordStarts[first], wordEnds[last]);
+                if (hyphenated[last]) { width += hyphenWidth; }
+                // A single word that's too wide has to go on a line by itself and run over.
+                if ( (width > maxWidth) && (first < last) ) { break; }
+
+                double slack = (end == numWords) ? 0 : Math.max(0, maxWidth - width);
+                int ls = lines[first] + 1;
+                double cost = costs[first] + (slack * slack);
+                if (hyphenated[last]) { cost += hyphenPenalty; }
+                if ( (ls < lines[end]) || ((ls == lines[end]) && (cost < costs[end])) ) {
+                    lines[end] = ls;
+                    costs[end] = cost;
+                    prevs[end] = first;
+                }
+            }
+        }
+
+        // Walk back from the end to find the line breaks, then add the lines in order.
+        int[] firstWords = new int[lines[numWords]];
+        for (int i = firstWords.length - 1, end = numWords; i >= 0; i--) {
+            firstWords[i] = prevs[end];
+            end = prevs[end];
+        }
+        for (int i = 0; i < firstWords.length; i++) {
+            int lastWord = (i + 1 < firstWords.length) ? firstWords[i + 1] - 1 : numWords - 1;
+            int lineStart = wordStarts[firstWords[i]];
+            int lineEnd = wordEnds[lastWord];
+            float width = textStyle.widthInDocUnits(cum, lineStart, lineEnd);
+            String row = text.substring(lineStart, lineEnd);
+            if (hyphenated[lastWord]) {
+                width += hyphenWidth;
+                row += HYPHEN;
+            }
+            wb.rows.add(WrappedRow.of(row, width, textStyle.lineHeight()));
         }
-//        // Not sure what to do if passed "".  This used to mean to insert a blank line, but I'd
-//        // really like to make that "\n" instead, but don't have the time.  *sigh*
-//        if (y == 0) {
-//            y -= textStyle.lineHeight();
-//        }
-        wb.blockDim = XyDim.of(maxX, 0 - y);
-        dims.put(maxWidth, wb);
-//        System.out.println("\tcalcWidth(" + maxWidth + ") on " + this.toString());
-//        System.out.println("\t\ttext calcDim() blockDim=" + wb.blockDim);
-        return wb.blockDim;
     }
 
     private WrappedBlock ensureWrappedBlock(final float maxWidth) {
         WrappedBlock wb = dims.get(maxWidth);
         if (wb == null) {
-            calcDimensionsForReal(maxWidth);
-            wb = dims.get(maxWidth);
+            // Maybe some other Text with the same string and style has already done the work.
+            WrapCache wrapCache = WrapCache.shared();
+            if (wrapCache != null) {
+                wb = wrapCache.get(text, textStyle, maxWidth);
+            }
+            if (wb == null) {
+                calcDimensionsForReal(maxWidth);
+                wb = dims.get(maxWidth);
+                if (wrapCache != null) {
+                    wrapCache.put(text, textStyle, maxWidth, wb);
+                }
+            } else {
+                dims.put(maxWidth, wb);
+            }
         }
         return wb;
     }
@@ -211,16 +431,13 @@ public class Text implements Renderable {
                            outerTopLeft.y() - wb.blockDim.y());
     }
 
-    private static String substrNoLeadingWhitespace(final String text, int startIdx) {
-        // Drop any opening whitespace.
+    /** Returns the index of the first non-whitespace character at or after startIdx */
+    private static int skipWhitespace(final String text, int startIdx) {
         while ( (startIdx < text.length()) &&
                 Character.isWhitespace(text.charAt(startIdx))) {
             startIdx++;
         }
-        if (startIdx > 0) {
-            return text.substring(startIdx);
-        }
-        return text;
+        return startIdx;
     }
 
     @Override
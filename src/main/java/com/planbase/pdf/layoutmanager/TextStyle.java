@@ -18,16 +18,31 @@ import java.awt.Color;
 import java.io.IOException;
 
 import org.apache.pdfbox.pdmodel.font.PDFontDescriptor;
-import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.font.PDFont;
 
 /**
-Specifies font, font-size, color, and padding.  Immutable.
+Specifies font, font-size, color, padding, and how to break lines and words of text.  Immutable.
  */
 public class TextStyle {
 
-    private final PDType1Font font;
+    /** How Text in a given style chooses where to break lines. */
+    public enum LineBreaking {
+        /** Fill each line with as many words as will fit before starting the next (the default). */
+        FIRST_FIT,
+        /**
+         Choose all the line breaks in a paragraph at once to make the lines as even as possible
+         without using more lines than FIRST_FIT would.  A little slower.
+         */
+        TOTAL_FIT;
+    }
+
+    public static final LineBreaking DEFAULT_LINE_BREAKING = LineBreaking.FIRST_FIT;
+
+    private final PDFont font;
     private final Color textColor;
     private final float fontSize;
+    // Shared by all TextStyles with this font.
+    private final FontWidths widths;
 
     private final float avgCharWidth;
     private final float factor;
@@ -35,12 +50,20 @@ public class TextStyle {
     private final float ascent;
     private final float descent;
     private final float leading;
+    private final float leadingFactor;
+    private final LineBreaking lineBreaking;
+    // Null means don't hyphenate.
+    private final Hyphenator hyphenator;
 
-    private TextStyle(PDType1Font f, float sz, Color tc, float leadingFactor) {
+    private TextStyle(PDFont f, float sz, Color tc, float lf, LineBreaking lb,
+                      Hyphenator h) {
         if (f == null) { throw new IllegalArgumentException("Font must not be null"); }
         if (tc == null) { tc = Color.BLACK; }
+        if (lb == null) { lb = DEFAULT_LINE_BREAKING; }
 
-        font = f; textColor = tc; fontSize = sz;
+        font = f; textColor = tc; fontSize = sz; leadingFactor = lf; lineBreaking = lb;
+        hyphenator = h;
+        widths = FontWidths.of(f);
         // Somewhere it says that font units are 1000 times page units, but my tests with
         // PDType1Font.HELVETICA and PDType1Font.HELVETICA_BOLD from size 5-200 show that 960x is
         // pretty darn good.
@@ -66,9 +89,13 @@ public class TextStyle {
         avgCharWidth = avgFontWidth * fontSize;
     }
 
-    /** Creates a TextStyle with the given font, size, color, and a leadingFactor of 0.5. */
-    public static TextStyle of(PDType1Font f, float sz, Color tc) {
-        return new TextStyle(f, sz, tc, 0.5f);
+    /**
+     Creates a TextStyle with the given font, size, color, and a leadingFactor of 0.5.  The font
+     can be one of the standard PDType1Fonts, or a TrueType font loaded with
+     {@link PdfLayoutMgr#loadTrueTypeFont(java.io.File)} for characters outside of WinAnsi.
+     */
+    public static TextStyle of(PDFont f, float sz, Color tc) {
+        return new TextStyle(f, sz, tc, 0.5f, DEFAULT_LINE_BREAKING, null);
     }
 
     /**
@@ -78,18 +105,19 @@ public class TextStyle {
      A leadingFactor of 1 will result of a leading equal to the descent, while a leadingFactor
      of 2 will result of a leading equal to twice the descent etc...
      */
-    public static TextStyle of(PDType1Font f, float sz, Color tc, float leadingFactor) {
-        return new TextStyle(f, sz, tc, leadingFactor);
+    public static TextStyle of(PDFont f, float sz, Color tc, float leadingFactor) {
+        return new TextStyle(f, sz, tc, leadingFactor, DEFAULT_LINE_BREAKING, null);
     }
 
     /**
-     Assumes ISO_8859_1 encoding
-     @param text ISO_8859_1 encoded text
+     Assumes ISO_8859_1 encoding for the standard PDType1Fonts.  Embedded TrueType fonts can
+     measure any character they have a glyph for.
+     @param text text this font can encode
      @return the width of this text rendered in this font.
      */
     public float stringWidthInDocUnits(String text) {
         try {
-            return font.getStringWidth(text) * factor;
+            return widths.stringWidth(font, text) * factor;
         } catch (IOException ioe) {
             // logger.error("IOException probably means an issue reading font metrics from the underlying font file used in this PDF");
             // Calculate our default if there's an exception.
@@ -97,11 +125,72 @@ public class TextStyle {
         }
     }
 
-    public PDType1Font font() { return font; }
+    /**
+     Looks up each character of the text exactly once and returns the running total of their
+     widths in unscaled font units: cum[i] is the width of text.substring(0, i), so the width of
+     any substring is a subtraction instead of a fresh measurement.  Sums are kept as doubles so
+     that the differences match what the font would report for the substring.
+     @param text text this font can encode
+     @return an array one longer than the text holding the cumulative character widths.
+     */
+    double[] cumulativeWidths(String text) {
+        final int len = text.length();
+        double[] cum = new double[len + 1];
+        double total = 0;
+        int i = 0;
+        while (i < len) {
+            int codePoint = text.codePointAt(i);
+            int charCount = Character.charCount(codePoint);
+            float w;
+            try {
+                w = widths.codePointWidth(font, text, i);
+            } catch (IOException ioe) {
+                // Same default as stringWidthInDocUnits(), but in font units.
+                w = avgCharWidth / factor;
+            }
+            total += w;
+            cum[i + 1] = total;
+            // The second half of a surrogate pair adds no width of its own.
+            if (charCount > 1) { cum[i + 2] = total; }
+            i += charCount;
+        }
+        return cum;
+    }
+
+    /**
+     @param cum cumulative widths from {@link #cumulativeWidths(String)}
+     @param start the index of the first character
+     @param end the index after the last character
+     @return the width of text.substring(start, end) rendered in this font.
+     */
+    float widthInDocUnits(double[] cum, int start, int end) {
+        return ((float) (cum[end] - cum[start])) * factor;
+    }
+
+    public PDFont font() { return font; }
     public float fontSize() { return fontSize; }
 
     public Color textColor() { return textColor; }
-    public TextStyle textColor(Color c) { return TextStyle.of(font, fontSize, c); }
+    public TextStyle textColor(Color c) {
+        return new TextStyle(font, fontSize, c, leadingFactor, lineBreaking, hyphenator);
+    }
+
+    public LineBreaking lineBreaking() { return lineBreaking; }
+    /** Returns a copy of this style which uses the given line breaking for Text. */
+    public TextStyle lineBreaking(LineBreaking lb) {
+        return new TextStyle(font, fontSize, textColor, leadingFactor, lb, hyphenator);
+    }
+
+    /** The Hyphenator that Text in this style uses to break long words, or null if it doesn't. */
+    public Hyphenator hyphenator() { return hyphenator; }
+    /**
+     Returns a copy of this style which hyphenates words that don't fit at the end of a line (or
+     don't fit on a line at all).  Pass null to turn hyphenation off.
+     */
+    public TextStyle hyphenator(Hyphenator h) {
+        return new TextStyle(font, fontSize, textColor, leadingFactor, lineBreaking, h);
+    }
+
     /**
      Average character width (for this font, or maybe guessed) as a positive number in document
      units
@@ -1,6 +1,14 @@
 package com.planbase.pdf.layoutmanager;
 
 import java.awt.Color;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 /**
  * Holds utility functions.
@@ -29,4 +37,43 @@ final class Utils {
         return Float.floatToIntBits(value);
     }
 
+    /** Reads the stream to the end, but doesn't close it. */
+    static byte[] readAll(InputStream is) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int len;
+        while ((len = is.read(buf)) != -1) {
+            baos.write(buf, 0, len);
+        }
+        return baos.toByteArray();
+    }
+
+    static byte[] readAll(File f) throws IOException {
+        InputStream is = new FileInputStream(f);
+        try {
+            return readAll(is);
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     Waits for a task, rethrowing whatever it threw.
+     @param what what the task makes, for error messages
+     */
+    static <T> T get(Future<T> f, String what) throws IOException {
+        try {
+            return f.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for " + what);
+        } catch (ExecutionException ee) {
+            Throwable cause = ee.getCause();
+            if (cause instanceof IOException) { throw (IOException) cause; }
+            if (cause instanceof RuntimeException) { throw (RuntimeException) cause; }
+            if (cause instanceof Error) { throw (Error) cause; }
+            throw new IOException("Failed to write " + what, cause);
+        }
+    }
+
 }
@@ -0,0 +1,195 @@
+// Copyright 2026-10-15 PlanBase Inc. & Glen Peterson
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.planbase.pdf.layoutmanager;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ <p>An optional, process-wide cache of wrapped Text, so that text which shows up over and over (labels,
+ disclaimers, repeated column values) is only wrapped once per JVM instead of once per Text
+ object.  Entries are keyed by the string, the TextStyle (by identity, so reuse your TextStyles),
+ and the width it was wrapped to.  TextStyles are only weakly held, because a TrueType font
+ belongs to the document it was loaded into, so once a document's styles are garbage, its
+ entries are dropped instead of keeping the whole document alive.  The cache is split into segments, each of which drops its
+ least-recently-used entries when it gets full, so threads laying out different documents rarely
+ wait on each other.  Thread-safe.</p>
+
+ <p>It's off by default.  Turn it on before laying out documents with:</p>
+ <pre><code>WrapCache.enable(10000);</code></pre>
+ */
+public final class WrapCache {
+    private static final int NUM_SEGMENTS = 16;
+
+    // Null when the shared cache is turned off.
+    private static volatile WrapCache shared = null;
+
+    private final Segment[] segments = new Segment[NUM_SEGMENTS];
+    private final int maxEntries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    // Keys whose TextStyle has been garbage collected.
+    private final ReferenceQueue<TextStyle> collected = new ReferenceQueue<TextStyle>();
+
+    private static class Segment extends LinkedHashMap<Key,Text.WrappedBlock> {
+        private static final long serialVersionUID = 1L;
+        private final int maxEntries;
+        Segment(int max) {
+            super(16, 0.75f, true); // Access order for least-recently-used eviction.
+            maxEntries = max;
+        }
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key,Text.WrappedBlock> eldest) {
+            return size() > maxEntries;
+        }
+    }
+
+    private static final class Key extends WeakReference<TextStyle> {
+        private final String text;
+        private final int widthBits;
+        private final int hashCode;
+
+        // Only keys that go in the cache need a queue.  Lookup keys don't outlive the lookup.
+        private Key(String t, TextStyle s, float width, ReferenceQueue<TextStyle> q) {
+            super(s, q);
+            text = t; widthBits = Float.floatToIntBits(width);
+            hashCode = ((text.hashCode() * 31) + System.identityHashCode(s)) * 31 + widthBits;
+        }
+
+        @Override public int hashCode() { return hashCode; }
+
+        @Override public boolean equals(Object other) {
+            if (this == other) { return true; }
+            if ( !(other instanceof Key) ) { return false; }
+            Key that = (Key) other;
+            TextStyle style = get();
+            // A collected style matches nothing but its own key.
+            return (hashCode == that.hashCode) && (widthBits == that.widthBits) &&
+                   (style != null) && (style == that.get()) && text.equals(that.text);
+        }
+    }
+
+    private WrapCache(int max) {
+        if (max < 1) {
+            throw new IllegalArgumentException("A WrapCache must hold at least one entry, not " +
+                                               max);
+        }
+        maxEntries = max;
+        int perSegment = Math.max(1, (max + NUM_SEGMENTS - 1) / NUM_SEGMENTS);
+        for (int i = 0; i < NUM_SEGMENTS; i++) {
+            segments[i] = new Segment(perSegment);
+        }
+    }
+
+    /**
+     Turns on the shared cache, holding roughly the given number of wrapped Texts.  Replaces (and
+     empties) any shared cache that was already on.
+     @return the new shared cache
+     */
+    public static WrapCache enable(int maxEntries) {
+        WrapCache wc = new WrapCache(maxEntries);
+        shared = wc;
+        return wc;
+    }
+
+    /** Turns off the shared cache and lets go of everything in it. */
+    public static void disable() { shared = null; }
+
+    /** Returns the shared cache, or null if it's turned off. */
+    public static WrapCache shared() { return shared; }
+
+    public int maxEntries() { return maxEntries; }
+
+    /** How many times a Text found its wrapping here. */
+    public long hits() { return hits.get(); }
+
+    /** How many times a Text had to wrap itself because its wrapping wasn't here. */
+    public long misses() { return misses.get(); }
+
+    /** The number of wrapped Texts in the cache right now. */
+    public int size() {
+        expunge();
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    /** Empties the cache (but doesn't reset the hit and miss counts). */
+    public void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    private Segment segment(Key key) {
+        // Spread the hash so that keys which differ only in the high bits use different segments.
+        int h = key.hashCode;
+        h ^= (h >>> 16);
+        return segments[(h ^ (h >>> 4)) & (NUM_SEGMENTS - 1)];
+    }
+
+    /** Removes the entries whose TextStyles have been garbage collected. */
+    private void expunge() {
+        Reference<? extends TextStyle> ref;
+        while ((ref = collected.poll()) != null) {
+            Key key = (Key) ref;
+            Segment segment = segment(key);
+            synchronized (segment) {
+                segment.remove(key);
+            }
+        }
+    }
+
+    /** Returns the text wrapped to the given width, or null (and counts a miss) if it isn't here. */
+    Text.WrappedBlock get(String text, TextStyle style, float width) {
+        Key key = new Key(text, style, width, null);
+        Segment segment = segment(key);
+        Text.WrappedBlock wb;
+        synchronized (segment) {
+            wb = segment.get(key);
+        }
+        if (wb == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return wb;
+    }
+
+    /** Remembers the text wrapped to the given width.  The block must not be changed afterward. */
+    void put(String text, TextStyle style, float width, Text.WrappedBlock wb) {
+        expunge();
+        Key key = new Key(text, style, width, collected);
+        Segment segment = segment(key);
+        synchronized (segment) {
+            segment.put(key, wb);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "WrapCache(maxEntries=" + maxEntries + " hits=" + hits + " misses=" + misses + ")";
+    }
+}
@@ -0,0 +1,96 @@
+// Copyright 2026-10-15 PlanBase Inc. & Glen Peterson
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.planbase.pdf.layoutmanager;
+
+import org.apache.pdfbox.contentstream.operator.Operator;
+import org.apache.pdfbox.cos.COSNumber;
+import org.apache.pdfbox.pdfparser.PDFStreamParser;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.graphics.form.PDFormXObject;
+import org.junit.Test;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class DisplayListTest {
+    @Test public void drawnInZOrderThenAddedOrder() throws IOException {
+        final float[] zValues = new float[] { PdfItem.DEFAULT_Z_INDEX, PdfItem.DEFAULT_Z_INDEX,
+                                              PdfItem.DEFAULT_Z_INDEX, -1f, 3f, -0f, 0.5f, -7f };
+        final float[] zs = new float[1000];
+        DisplayList dl = new DisplayList(new StyleTable());
+        List<Integer> expected = new ArrayList<Integer>();
+        Random rand = new Random(42);
+        for (int i = 0; i < zs.length; i++) {
+            zs[i] = zValues[rand.nextInt(zValues.length)];
+            // Each rectangle's x is the order it was added in.
+            dl.fillRect(i, 0, 1, 1, Color.BLACK, zs[i]);
+            expected.add(i);
+        }
+        assertEquals(1000, dl.size());
+        // A stable sort by z, where -0 and 0 are the same.
+        Collections.sort(expected, new Comparator<Integer>() {
+            @Override public int compare(Integer a, Integer b) {
+                return (zs[a] < zs[b]) ? -1 : (zs[a] > zs[b]) ? 1 : 0;
+            }
+        });
+
+        PDDocument doc = new PDDocument();
+        try {
+            PDFormXObject form = dl.toForm(doc, new PDRectangle(1000, 1), 0, dl.numZIndexes());
+            PDFStreamParser parser = new PDFStreamParser(form);
+            parser.parse();
+            List<Object> tokens = parser.getTokens();
+            List<Integer> drawn = new ArrayList<Integer>();
+            for (int t = 0; t < tokens.size(); t++) {
+                Object token = tokens.get(t);
+                if ( (token instanceof Operator) && "re".equals(((Operator) token).getName()) ) {
+                    drawn.add(((COSNumber) tokens.get(t - 4)).intValue());
+                }
+            }
+            assertEquals(expected, drawn);
+        } finally {
+            doc.close();
+        }
+    }
+
+    @Test public void stylesAreInterned() {
+        StyleTable styles = new StyleTable();
+        DisplayList dl = new DisplayList(styles);
+        TextStyle ts = TextStyle.of(PDType1Font.HELVETICA, 9.5f, Color.BLACK);
+        for (int i = 0; i < 1000; i++) {
+            // Equal, but not the same object.
+            dl.drawLine(0, i, 100, i, LineStyle.of(new Color(0x336699)), PdfItem.DEFAULT_Z_INDEX);
+            dl.fillRect(0, i, 100, 1, Color.WHITE, -1f);
+            dl.drawText(0, i, "Row " + i, ts, PdfItem.DEFAULT_Z_INDEX);
+        }
+        assertEquals(3000, dl.size());
+        assertEquals(3, styles.size());
+    }
+
+    @Test public void empty() throws IOException {
+        DisplayList dl = new DisplayList(new StyleTable());
+        assertEquals(0, dl.size());
+        dl.commit(GraphicsState.of(null));
+    }
+}
@@ -0,0 +1,42 @@
+package com.planbase.pdf.layoutmanager;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class FloatMapTest {
+    @Test public void basics() {
+        FloatMap<String> fm = new FloatMap<String>();
+        assertEquals(0, fm.size());
+        assertNull(fm.get(1f));
+
+        fm.put(1f, "one");
+        assertEquals("one", fm.get(1f));
+        assertNull(fm.get(2f));
+        fm.put(1f, "uno");
+        assertEquals("uno", fm.get(1f));
+        assertEquals(1, fm.size());
+    }
+
+    @Test public void sameKeysAsHashMap() {
+        // Float.equals() compares floatToIntBits, so 0 and -0 are different and NaN is NaN.
+        float[] keys = { 0f, -0f, Float.NaN, 100f, 99.99999f, Float.MAX_VALUE, 1.5f, -3f, 7f };
+        FloatMap<Integer> fm = new FloatMap<Integer>();
+        Map<Float,Integer> hm = new HashMap<Float,Integer>();
+        for (int i = 0; i < keys.length; i++) {
+            fm.put(keys[i], i);
+            hm.put(keys[i], i);
+        }
+        fm.put(100f, -1);
+        hm.put(100f, -1);
+        assertEquals(hm.size(), fm.size());
+        for (float key : keys) {
+            assertEquals(hm.get(key), fm.get(key));
+        }
+        assertNull(fm.get(42f));
+    }
+}
@@ -0,0 +1,79 @@
+package com.planbase.pdf.layoutmanager;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDType0Font;
+import org.junit.Test;
+
+import java.awt.Color;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class FontRegistryTest {
+    private static File fontFile() throws IOException {
+        File f = File.createTempFile("LiberationSans", ".ttf");
+        f.deleteOnExit();
+        InputStream is = PDFont.class.getResourceAsStream(
+                "/org/apache/pdfbox/resources/ttf/LiberationSans-Regular.ttf");
+        OutputStream os = new FileOutputStream(f);
+        try {
+            byte[] buf = new byte[8192];
+            int len;
+            while ((len = is.read(buf)) > 0) { os.write(buf, 0, len); }
+        } finally {
+            os.close();
+            is.close();
+        }
+        return f;
+    }
+
+    @Test public void parsesOnce() throws IOException {
+        File ttf = fontFile();
+        FontRegistry fonts = FontRegistry.of();
+        String s = "\u041f\u0440\u0438\u0432\u0435\u0442 \u03b1\u03b2\u03b3";
+
+        PDType0Font first = null;
+        for (int i = 0; i < 3; i++) {
+            PdfLayoutMgr pageMgr = PdfLayoutMgr.newRgbPageMgr();
+            PDType0Font font = fonts.load(pageMgr, ttf);
+            if (first == null) {
+                first = font;
+            } else {
+                // A new font for each document, sharing the widths of the first.
+                assertNotSame(first, font);
+                assertSame(FontWidths.of(first), FontWidths.of(font));
+            }
+            TextStyle ts = TextStyle.of(font, 11f, Color.BLACK);
+            assertEquals(font.getStringWidth(s) * (11f / 960f), ts.stringWidthInDocUnits(s), 0f);
+
+            LogicalPage lp = pageMgr.logicalPageStart(LogicalPage.Orientation.PORTRAIT);
+            lp.putCell(40f, lp.yPageTop(), Cell.of(CellStyle.DEFAULT, 200f, ts, s));
+            lp.commit();
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            pageMgr.save(baos);
+
+            PDDocument doc = PDDocument.load(baos.toByteArray());
+            try {
+                PDResources res = doc.getPage(0).getResources();
+                PDFont embedded = res.getFont(res.getFontNames().iterator().next());
+                assertTrue(embedded.getName().endsWith("+LiberationSans"));
+            } finally {
+                doc.close();
+            }
+        }
+        assertEquals(1, fonts.parses());
+        assertEquals(3, fonts.documentLoads());
+        assertTrue(fonts.parseNanos() > 0);
+        assertTrue(fonts.documentLoadNanos() >= fonts.parseNanos());
+    }
+}
@@ -0,0 +1,51 @@
+package com.planbase.pdf.layoutmanager;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class HyphenatorTest {
+    private static Hyphenator of(String patterns, int leftMin, int rightMin) throws IOException {
+        return Hyphenator.of(new ByteArrayInputStream(patterns.getBytes("UTF-8")),
+                             leftMin, rightMin, 10);
+    }
+
+    @Test public void liangExample() throws IOException {
+        // The patterns from Liang's thesis which apply to this word.
+        Hyphenator h = of("\\patterns{ % comment\n" +
+                          "hy3ph he2n hena4 hen5at 1na n2at 1tio 2io o2n\n}", 1, 1);
+        assertEquals("hy-phen-ation", h.hyphenate("hyphenation"));
+        assertEquals("Hy-phen-ation", h.hyphenate("Hyphenation"));
+
+        // Tighter limits drop points near the ends.
+        h = of("hy3ph he2n hena4 hen5at 1na n2at 1tio 2io o2n", 3, 5);
+        assertEquals("hyphen-ation", h.hyphenate("hyphenation"));
+        assertEquals("hyph", h.hyphenate("hyph"));
+    }
+
+    @Test public void exceptions() throws IOException {
+        Hyphenator h = of("\\patterns{ 1b } \\hyphenation{ ta-ble }", 1, 1);
+        assertEquals("ta-ble", h.hyphenate("table"));
+        assertEquals("a-b-ba", h.hyphenate("abba"));
+    }
+
+    @Test public void cache() throws IOException {
+        Hyphenator h = of("1na", 1, 1);
+        assertSame(h.points("banana"), h.points("banana"));
+        assertEquals(2, h.points("banana").length);
+    }
+
+    @Test public void sample() {
+        Hyphenator h = Hyphenator.sample();
+        assertSame(h, Hyphenator.sample());
+        assertEquals("hy-phen-ation", h.hyphenate("hyphenation"));
+        assertEquals("under-standing", h.hyphenate("understanding"));
+        assertEquals("mis-sion", h.hyphenate("mission"));
+        assertEquals("dishes", h.hyphenate("dishes"));
+        assertEquals("busi-ness", h.hyphenate("business"));
+    }
+}
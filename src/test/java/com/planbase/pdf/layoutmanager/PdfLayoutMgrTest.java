@@ -14,13 +14,52 @@
 
 package com.planbase.pdf.layoutmanager;
 
+import org.apache.pdfbox.contentstream.operator.Operator;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdfparser.PDFStreamParser;
+import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDResources;
 import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDType0Font;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.graphics.color.PDDeviceRGB;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.apache.pdfbox.text.PDFTextStripper;
 import org.junit.Test;
 
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Deflater;
 
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 // TODO: This is LogicalPage test and should be renamed to that.
 public class PdfLayoutMgrTest {
@@ -40,4 +79,768 @@ public class PdfLayoutMgrTest {
         assertEquals(0.0, lp.yPageBottom(), 0.000000001);
         assertEquals(PDRectangle.LETTER.getWidth(), lp.pageWidth(), 0.000000001);
     }
-}
\ No newline at end of file
+
+    @Test public void winAnsi() {
+        String latin1 = "Caf\u00e9 cr\u00e8me, 5\u00b0C \u00bd price";
+        assertSame(latin1, PdfLayoutMgr.convertJavaStringToWinAnsi(latin1));
+
+        // Exact equivalents, a Romanization, and unknown characters (including one outside the
+        // BMP) which become bullets.
+        String in = "\u20ac5 \u201cok\u201d \u0429 \u4e2d \ud83d\ude00!";
+        String expected = "\u0000\u00805 \u0000\u0093ok\u0000\u0094 Shch \u0000\u0095 \u0000\u0095!";
+        assertEquals(expected, PdfLayoutMgr.convertJavaStringToWinAnsi(in));
+
+        assertEquals(expected.length(), PdfLayoutMgr.winAnsiLength(in));
+        char[] buf = new char[expected.length() + 3];
+        assertEquals(expected.length(), PdfLayoutMgr.convertJavaStringToWinAnsi(in, buf, 3));
+        assertEquals(expected, new String(buf, 3, expected.length()));
+    }
+
+    @Test public void trueTypeFont() throws IOException {
+        PdfLayoutMgr pageMgr = PdfLayoutMgr.newRgbPageMgr();
+        InputStream is = PDFont.class.getResourceAsStream(
+                "/org/apache/pdfbox/resources/ttf/LiberationSans-Regular.ttf");
+        PDType0Font font = pageMgr.loadTrueTypeFont(is);
+        is.close();
+
+        // Characters WinAnsi doesn't have are measured through the same width table.
+        String s = "\u0417\u0434\u0440\u0430\u0432\u0441\u0442\u0432\u0443\u0439, " +
+                   "\u03ba\u03cc\u03c3\u03bc\u03b5!";
+        TextStyle ts = TextStyle.of(font, 11f, Color.BLACK);
+        assertEquals(font.getStringWidth(s) * (11f / 960f), ts.stringWidthInDocUnits(s), 0f);
+        assertEquals(font.getStringWidth(s) * (11f / 960f), ts.stringWidthInDocUnits(s), 0f);
+
+        LogicalPage lp = pageMgr.logicalPageStart(LogicalPage.Orientation.PORTRAIT);
+        lp.putCell(40f, lp.yPageTop(), Cell.of(CellStyle.DEFAULT, 200f, ts, s));
+        lp.commit();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        pageMgr.save(baos);
+
+        // Only the glyphs used were embedded.
+        PDDocument doc = PDDocument.load(baos.toByteArray());
+        try {
+            PDResources res = doc.getPage(0).getResources();
+            PDFont embedded = res.getFont(res.getFontNames().iterator().next());
+            assertTrue(embedded.getName().matches("[A-Z]{6}\\+LiberationSans"));
+            assertTrue(baos.size() < 350200 / 10);
+        } finally {
+            doc.close();
+        }
+    }
+
+    /** Counts the content stream operators on every page of the given PDF. */
+    static Map<String,Integer> countOperators(byte[] pdf) throws IOException {
+        Map<String,Integer> counts = new HashMap<String,Integer>();
+        PDDocument doc = PDDocument.load(pdf);
+        try {
+            for (PDPage page : doc.getPages()) {
+                PDFStreamParser parser = new PDFStreamParser(page);
+                parser.parse();
+                for (Object token : parser.getTokens()) {
+                    if (token instanceof Operator) {
+                        String name = ((Operator) token).getName();
+                        Integer count = counts.get(name);
+                        counts.put(name, (count == null) ? 1 : count + 1);
+                    }
+                }
+            }
+        } finally {
+            doc.close();
+        }
+        return counts;
+    }
+
+    @Test public void unchangedStateNotRepeated() throws IOException {
+        PdfLayoutMgr pageMgr = PdfLayoutMgr.newRgbPageMgr();
+        LogicalPage lp = pageMgr.logicalPageStart(LogicalPage.Orientation.PORTRAIT);
+        TablePart part = lp.tableBuilder(XyOffset.of(40f, lp.yPageTop()))
+                           .addCellWidths(100f, 100f, 100f)
+                           .textStyle(TextStyle.of(PDType1Font.HELVETICA, 9.5f, Color.BLACK))
+                           .partBuilder()
+                           .cellStyle(CellStyle.of(CellStyle.Align.TOP_LEFT, Padding.of(2),
+                                                   Color.LIGHT_GRAY,
+                                                   BorderStyle.of(Color.DARK_GRAY)));
+        for (int i = 0; i < 20; i++) {
+            part.rowBuilder().addTextCells("Row " + i, "Second", "Third").buildRow();
+        }
+        part.buildPart().buildTable();
+        lp.commit();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        pageMgr.save(baos);
+
+        Map<String,Integer> ops = countOperators(baos.toByteArray());
+        assertEquals(60, (int) ops.get("Tj"));
+        // Every cell uses the same font and the same line width, so they're only set once.
+        assertEquals(1, (int) ops.get("Tf"));
+        assertEquals(1, (int) ops.get("w"));
+    }
+
+    @Test public void wrappedLinesShareOneTextObject() throws IOException {
+        PdfLayoutMgr pageMgr = PdfLayoutMgr.newRgbPageMgr();
+        LogicalPage lp = pageMgr.logicalPageStart(LogicalPage.Orientation.PORTRAIT);
+        StringBuilder sB = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            sB.append("Lorem ipsum dolor sit amet. ");
+        }
+        lp.putCell(40f, lp.yPageTop(),
+                   Cell.of(CellStyle.of(CellStyle.Align.TOP_LEFT, Padding.of(2), null, null), 200f,
+                           TextStyle.of(PDType1Font.HELVETICA, 9.5f, Color.BLACK),
+                           sB.toString()));
+        lp.commit();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        pageMgr.save(baos);
+
+        Map<String,Integer> ops = countOperators(baos.toByteArray());
+        int lines = ops.get("Tj");
+        assertTrue(lines > 20);
+        assertEquals(1, (int) ops.get("BT"));
+        assertEquals(1, (int) ops.get("ET"));
+        // Evenly spaced lines are positioned with T* instead of Td.  Float rounding of the y
+        // coordinates means the odd line still needs a Td.
+        assertTrue(ops.get("T*") > (lines * 3 / 4));
+        assertTrue(ops.get("TL") < 4);
+    }
+
+    @Test public void streaming() throws IOException {
+        PdfLayoutMgr pageMgr = PdfLayoutMgr.of(PDDeviceRGB.INSTANCE, PDRectangle.LETTER,
+                                               DocOptions.builder().streaming(true).build());
+        TextStyle ts = TextStyle.of(PDType1Font.HELVETICA, 9.5f, Color.BLACK);
+        for (int i = 0; i < 20; i++) {
+            LogicalPage lp = pageMgr.logicalPageStart(LogicalPage.Orientation.PORTRAIT);
+            lp.putCell(40f, lp.yPageTop(), Cell.of(CellStyle.DEFAULT, 200f, ts, "Page " + i));
+            lp.commit();
+        }
+        // Committed pages don't hold onto their drawing operations.
+        for (PdfLayoutMgr.PageBuffer pb : pageMgr.pages()) {
+            assertNull(pb);
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        pageMgr.save(baos);
+
+        PDDocument doc = PDDocument.load(baos.toByteArray());
+        assertEquals(20, doc.getNumberOfPages());
+        doc.close();
+    }
+
+    @Test public void memoryUsageAndStats() throws IOException {
+        // 1000 bytes of heap is less than one page's content stream.
+        DocOptions options = DocOptions.builder()
+                                       .memoryUsage(MemoryUsageSetting.setupMixed(1000))
+                                       .build();
+        assertFalse(options.streaming());
+        PdfLayoutMgr pageMgr = PdfLayoutMgr.of(PDDeviceRGB.INSTANCE, PDRectangle.LETTER, options);
+        TextStyle ts = TextStyle.of(PDType1Font.HELVETICA, 9.5f, Color.BLACK);
+        for (int i = 0; i < 5; i++) {
+            LogicalPage lp = pageMgr.logicalPageStart(LogicalPage.Orientation.PORTRAIT);
+            lp.putCell(40f, lp.yPageTop(), Cell.of(CellStyle.DEFAULT, 200f, ts, "Page " + i));
+            lp.commit();
+        }
+        DocStats stats = pageMgr.stats();
+        assertEquals(5, stats.pages());
+        assertTrue(stats.contentStreamBytes() > 0);
+        assertEquals(0, stats.bytesWritten());
+        assertSame(options, stats.options());
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        pageMgr.save(baos);
+        stats = pageMgr.stats();
+        assertEquals(baos.size(), stats.bytesWritten());
+        assertTrue(stats.saveNanos() > 0);
+        assertTrue(stats.bytesWritten() > stats.contentStreamBytes());
+
+        PDDocument doc = PDDocument.load(baos.toByteArray());
+        assertEquals(5, doc.getNumberOfPages());
+        doc.close();
+
+        assertTrue(DocOptions.builder().streaming(true).build().streaming());
+        assertTrue(DocOptions.DEFAULT.memoryUsage(MemoryUsageSetting.setupTempFileOnly())
+                                     .streaming());
+        assertSame(DocOptions.DEFAULT, DocOptions.DEFAULT.streaming(false));
+    }
+
+    private static byte[] tablePages(DocOptions options) throws IOException {
+        PdfLayoutMgr pageMgr = PdfLayoutMgr.of(PDDeviceRGB.INSTANCE, PDRectangle.LETTER, options);
+        for (int p = 0; p < 10; p++) {
+            LogicalPage lp = pageMgr.logicalPageStart(LogicalPage.Orientation.PORTRAIT);
+            TablePart part = lp.tableBuilder(XyOffset.of(40f, lp.yPageTop()))
+                               .addCellWidths(100f, 100f)
+                               .textStyle(TextStyle.of(PDType1Font.HELVETICA, 9.5f, Color.BLACK))
+                               .partBuilder()
+                               .cellStyle(CellStyle.of(CellStyle.Align.TOP_LEFT, Padding.of(2),
+                                                       Color.LIGHT_GRAY,
+                                                       BorderStyle.of(Color.DARK_GRAY)));
+            for (int i = 0; i < 30; i++) {
+                part.rowBuilder().addTextCells("Page " + p, "Row " + i).buildRow();
+            }
+            part.buildPart().buildTable();
+            lp.commit();
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        pageMgr.save(baos);
+        return baos.toByteArray();
+    }
+
+    private static List<byte[]> pageContents(byte[] pdf) throws IOException {
+        PDDocument doc = PDDocument.load(pdf);
+        List<byte[]> contents = new ArrayList<byte[]>();
+        for (PDPage page : doc.getPages()) {
+            InputStream is = page.getContents();
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            int b;
+            while ((b = is.read()) != -1) { baos.write(b); }
+            is.close();
+            contents.add(baos.toByteArray());
+        }
+        doc.close();
+        return contents;
+    }
+
+    @Test public void parallelContentCompression() throws IOException {
+        List<byte[]> expected = pageContents(tablePages(DocOptions.DEFAULT));
+        assertEquals(10, expected.size());
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int level : new int[] { Deflater.DEFAULT_COMPRESSION, Deflater.BEST_SPEED,
+                                         Deflater.BEST_COMPRESSION }) {
+                List<byte[]> actual = pageContents(
+                        tablePages(DocOptions.builder()
+                                             .compressionExecutor(executor)
+                                             .compressionLevel(level)
+                                             .build()));
+                assertEquals(expected.size(), actual.size());
+                for (int i = 0; i < expected.size(); i++) {
+                    assertArrayEquals(expected.get(i), actual.get(i));
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+        // Just a compression level, deflated on this thread.
+        List<byte[]> actual = pageContents(tablePages(DocOptions.DEFAULT.compressionLevel(1)));
+        for (int i = 0; i < expected.size(); i++) {
+            assertArrayEquals(expected.get(i), actual.get(i));
+        }
+    }
+
+    private static byte[] longLogicalPage(DocOptions options) throws IOException {
+        return longLogicalPage(options, 300);
+    }
+
+    private static byte[] longLogicalPage(DocOptions options, int rows) throws IOException {
+        PdfLayoutMgr pageMgr = PdfLayoutMgr.of(PDDeviceRGB.INSTANCE, PDRectangle.LETTER, options);
+        InputStream is = PDFont.class.getResourceAsStream(
+                "/org/apache/pdfbox/resources/ttf/LiberationSans-Regular.ttf");
+        TextStyle ttf = TextStyle.of(pageMgr.loadTrueTypeFont(is), 9.5f, Color.BLUE);
+        is.close();
+        TextStyle ts = TextStyle.of(PDType1Font.HELVETICA, 9.5f, Color.BLACK);
+        CellStyle boxed = CellStyle.of(CellStyle.Align.TOP_LEFT, Padding.of(2), Color.LIGHT_GRAY,
+                                       BorderStyle.of(Color.DARK_GRAY));
+        LogicalPage lp = pageMgr.logicalPageStart(LogicalPage.Orientation.LANDSCAPE);
+        lp.putCellAsHeaderFooter(40f, lp.yPageTop() + 10, Cell.of(CellStyle.DEFAULT, 300f, ts,
+                                                                   "Header"));
+        float y = lp.yPageTop();
+        for (int i = 0; i < rows; i++) {
+            y = lp.putRow(40f, y, Cell.of(boxed, 100f, ts, "Row " + i),
+                          Cell.of(boxed, 200f, ttf, "\u0417\u0434\u0440\u0430\u0432 " + i));
+        }
+        lp.commit();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        pageMgr.save(baos);
+        return baos.toByteArray();
+    }
+
+    @Test public void concurrentPages() throws IOException {
+        List<byte[]> expected = pageContents(longLogicalPage(DocOptions.DEFAULT));
+        assertTrue(expected.size() > 4);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            // Twice, because each worker writes with its own content stream, but fonts are shared.
+            for (int i = 0; i < 2; i++) {
+                byte[] pdf = longLogicalPage(DocOptions.DEFAULT.pageExecutor(executor));
+                List<byte[]> actual = pageContents(pdf);
+                assertEquals(expected.size(), actual.size());
+                for (int p = 0; p < expected.size(); p++) {
+                    assertArrayEquals(expected.get(p), actual.get(p));
+                }
+                PDDocument doc = PDDocument.load(pdf);
+                String text = new PDFTextStripper().getText(doc);
+                doc.close();
+                assertTrue(text.contains("\u0417\u0434\u0440\u0430\u0432 299"));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test public void concurrentPagesStress() throws IOException {
+        DocOptions deflated = DocOptions.DEFAULT.compressionLevel(Deflater.BEST_SPEED);
+        List<byte[]> expected = pageContents(longLogicalPage(deflated, 4000));
+        assertTrue(expected.size() > 100);
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            for (int i = 0; i < 5; i++) {
+                DocOptions options = deflated.pageExecutor(executor);
+                List<byte[]> actual = pageContents(longLogicalPage(options, 4000));
+                assertEquals(expected.size(), actual.size());
+                for (int p = 0; p < expected.size(); p++) {
+                    assertArrayEquals(expected.get(p), actual.get(p));
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static BufferedImage logo(int type, Color c) {
+        BufferedImage bi = new BufferedImage(60, 40, type);
+        Graphics2D g = bi.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, 60, 40);
+        g.setColor(c);
+        g.fillOval(10, 5, 40, 30);
+        g.dispose();
+        return bi;
+    }
+
+    @Test public void sameImageEmbeddedOnce() throws IOException {
+        PdfLayoutMgr pageMgr = PdfLayoutMgr.newRgbPageMgr();
+        LogicalPage lp = pageMgr.logicalPageStart(LogicalPage.Orientation.PORTRAIT);
+        float y = lp.yPageTop();
+        // The same logo decoded again for every row.
+        for (int i = 0; i < 5; i++) {
+            for (int type : new int[] { BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_3BYTE_BGR }) {
+                y = lp.putRow(40f, y,
+                              Cell.of(CellStyle.DEFAULT, 100f, ScaledJpeg.of(logo(type, Color.RED))),
+                              Cell.of(CellStyle.DEFAULT, 100f, ScaledPng.of(logo(type, Color.RED))));
+            }
+        }
+        DocStats stats = pageMgr.stats();
+        // One of each type as a JPEG, and one of each type as a PNG.
+        assertEquals(4, stats.images());
+
+        // A different picture, and part of one that shares the same data.
+        BufferedImage blue = logo(BufferedImage.TYPE_INT_RGB, Color.BLUE);
+        lp.putRow(40f, y, Cell.of(CellStyle.DEFAULT, 100f, ScaledJpeg.of(blue)),
+                  Cell.of(CellStyle.DEFAULT, 100f, ScaledJpeg.of(blue.getSubimage(0, 0, 30, 40))));
+        lp.commit();
+        assertEquals(6, pageMgr.stats().images());
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        pageMgr.save(baos);
+        PDDocument doc = PDDocument.load(baos.toByteArray());
+        int xObjects = 0;
+        for (COSName name : doc.getPage(0).getResources().getXObjectNames()) {
+            xObjects++;
+        }
+        doc.close();
+        assertEquals(6, xObjects);
+    }
+
+    private static BufferedImage indexed(Color c) {
+        byte[] r = new byte[] { (byte) c.getRed(), 0 };
+        byte[] g = new byte[] { (byte) c.getGreen(), 0 };
+        byte[] b = new byte[] { (byte) c.getBlue(), 0 };
+        // Every pixel is index 0, whatever color that is.
+        return new BufferedImage(4, 4, BufferedImage.TYPE_BYTE_INDEXED,
+                                 new IndexColorModel(8, 2, r, g, b));
+    }
+
+    @Test public void differentPalettesEmbeddedSeparately() throws IOException {
+        PdfLayoutMgr pageMgr = PdfLayoutMgr.newRgbPageMgr();
+        LogicalPage lp = pageMgr.logicalPageStart(LogicalPage.Orientation.PORTRAIT);
+        lp.putRow(40f, lp.yPageTop(),
+                  Cell.of(CellStyle.DEFAULT, 100f, ScaledPng.of(indexed(Color.RED))),
+                  Cell.of(CellStyle.DEFAULT, 100f, ScaledPng.of(indexed(Color.BLUE))),
+                  // Same palette, same pixels.
+                  Cell.of(CellStyle.DEFAULT, 100f, ScaledPng.of(indexed(Color.BLUE))));
+        lp.commit();
+        assertEquals(2, pageMgr.stats().images());
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        pageMgr.save(baos);
+
+        PDDocument doc = PDDocument.load(baos.toByteArray());
+        PDResources res = doc.getPage(0).getResources();
+        List<Integer> colors = new ArrayList<Integer>();
+        for (COSName name : res.getXObjectNames()) {
+            colors.add(((PDImageXObject) res.getXObject(name)).getImage().getRGB(1, 1));
+        }
+        doc.close();
+        Collections.sort(colors);
+        assertEquals(Arrays.asList(Color.BLUE.getRGB(), Color.RED.getRGB()), colors);
+    }
+
+    @Test public void jpegBytesEmbeddedAsIs() throws IOException {
+        InputStream is = PdfLayoutMgrTest.class.getResourceAsStream("/melon.jpg");
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        int b;
+        while ((b = is.read()) != -1) { file.write(b); }
+        is.close();
+        byte[] jpeg = file.toByteArray();
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(jpeg));
+
+        PdfLayoutMgr pageMgr = PdfLayoutMgr.newRgbPageMgr();
+        LogicalPage lp = pageMgr.logicalPageStart(LogicalPage.Orientation.PORTRAIT);
+        ScaledJpeg sj = ScaledJpeg.of(new ByteArrayInputStream(jpeg));
+        assertNull(sj.bufferedImage());
+        assertEquals(ScaledJpeg.of(decoded).dimensions(), sj.dimensions());
+        // Read twice, but the same bytes.
+        lp.putRow(40f, lp.yPageTop(), Cell.of(CellStyle.DEFAULT, 200f, sj),
+                  Cell.of(CellStyle.DEFAULT, 200f, ScaledJpeg.of(jpeg.clone(), 100f, 50f)));
+        lp.commit();
+        assertEquals(1, pageMgr.stats().images());
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        pageMgr.save(baos);
+
+        PDDocument doc = PDDocument.load(baos.toByteArray());
+        PDResources res = doc.getPage(0).getResources();
+        PDImageXObject img = (PDImageXObject) res.getXObject(res.getXObjectNames().iterator().next());
+        assertEquals(decoded.getWidth(), img.getWidth());
+        assertEquals(decoded.getHeight(), img.getHeight());
+        assertEquals(COSName.DCT_DECODE, img.getCOSObject().getDictionaryObject(COSName.FILTER));
+        InputStream raw = img.getCOSObject().createRawInputStream();
+        ByteArrayOutputStream embedded = new ByteArrayOutputStream();
+        while ((b = raw.read()) != -1) { embedded.write(b); }
+        raw.close();
+        doc.close();
+        assertArrayEquals(jpeg, embedded.toByteArray());
+
+        try {
+            ScaledJpeg.of(new byte[] { 1, 2, 3, 4, 5 });
+            fail("Not a JPEG");
+        } catch (IllegalArgumentException expected) {
+            // Good
+        }
+    }
+
+    @Test public void pngBytesEmbeddedLosslessly() throws IOException {
+        int[] types = new int[] { BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_BYTE_GRAY,
+                                  // Alpha has to be decoded.
+                                  BufferedImage.TYPE_INT_ARGB };
+        for (int type : types) {
+            BufferedImage bi = logo(type, Color.RED);
+            ByteArrayOutputStream png = new ByteArrayOutputStream();
+            ImageIO.write(bi, "png", png);
+
+            ScaledPng sp = ScaledPng.of(new ByteArrayInputStream(png.toByteArray()));
+            assertEquals(type == BufferedImage.TYPE_INT_ARGB, sp.bufferedImage() != null);
+            assertEquals(ScaledPng.of(bi).dimensions(), sp.dimensions());
+
+            PdfLayoutMgr pageMgr = PdfLayoutMgr.newRgbPageMgr();
+            LogicalPage lp = pageMgr.logicalPageStart(LogicalPage.Orientation.PORTRAIT);
+            lp.putRow(40f, lp.yPageTop(), Cell.of(CellStyle.DEFAULT, 200f, sp),
+                      Cell.of(CellStyle.DEFAULT, 200f, ScaledPng.of(png.toByteArray())));
+            lp.commit();
+            assertEquals(1, pageMgr.stats().images());
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            pageMgr.save(baos);
+
+            PDDocument doc = PDDocument.load(baos.toByteArray());
+            PDResources res = doc.getPage(0).getResources();
+            PDImageXObject img = (PDImageXObject) res.getXObject(res.getXObjectNames().iterator()
+                                                                    .next());
+            BufferedImage embedded = img.getImage();
+            doc.close();
+            for (int y = 0; y < bi.getHeight(); y++) {
+                for (int x = 0; x < bi.getWidth(); x++) {
+                    int expected = bi.getRGB(x, y);
+                    if (type == BufferedImage.TYPE_BYTE_GRAY) {
+                        // What the file says (getRGB() treats Java's gray as linear).
+                        int g = bi.getRaster().getSample(x, y, 0);
+                        expected = 0xFF000000 | (g << 16) | (g << 8) | g;
+                    }
+                    assertEquals(expected, embedded.getRGB(x, y));
+                }
+            }
+        }
+        try {
+            ScaledPng.of(new byte[40]);
+            fail("Not a PNG");
+        } catch (IllegalArgumentException expected) {
+            // Good
+        }
+    }
+
+    @Test public void imagesShrunkToMaxImageDpi() throws IOException {
+        BufferedImage photo = new BufferedImage(1200, 800, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = photo.createGraphics();
+        g.setPaint(new GradientPaint(0, 0, Color.RED, 1200, 800, Color.BLUE));
+        g.fillRect(0, 0, 1200, 800);
+        g.dispose();
+        BufferedImage gray = new BufferedImage(600, 400, BufferedImage.TYPE_BYTE_GRAY);
+        for (int y = 0; y < 400; y++) {
+            for (int x = 0; x < 600; x++) {
+                gray.getRaster().setSample(x, y, 0, 76);
+            }
+        }
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(gray, "png", png);
+
+        PdfLayoutMgr pageMgr = PdfLayoutMgr.of(PDDeviceRGB.INSTANCE, PDRectangle.LETTER,
+                                               DocOptions.builder().maxImageDpi(144).build());
+        LogicalPage lp = pageMgr.logicalPageStart(LogicalPage.Orientation.PORTRAIT);
+        float y = lp.yPageTop();
+        // The largest of these is 200 x 133.3 units, or 400 x 267 pixels at 144 DPI.
+        y = lp.putRow(40f, y, Cell.of(CellStyle.DEFAULT, 200f, ScaledJpeg.of(photo, 100, 200 / 3f)),
+                      Cell.of(CellStyle.DEFAULT, 200f, ScaledJpeg.of(photo, 200, 400 / 3f)));
+        lp.putRow(40f, y, Cell.of(CellStyle.DEFAULT, 200f, ScaledPng.of(png.toByteArray(), 60, 40)),
+                  // Already fewer pixels than 144 DPI.
+                  Cell.of(CellStyle.DEFAULT, 200f,
+                          ScaledPng.of(logo(BufferedImage.TYPE_INT_RGB, Color.RED), 100, 80)));
+        lp.commit();
+        assertEquals(3, pageMgr.stats().images());
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        pageMgr.save(baos);
+
+        PDDocument doc = PDDocument.load(baos.toByteArray());
+        PDResources res = doc.getPage(0).getResources();
+        List<String> sizes = new ArrayList<String>();
+        for (COSName name : res.getXObjectNames()) {
+            PDImageXObject img = (PDImageXObject) res.getXObject(name);
+            sizes.add(img.getWidth() + "x" + img.getHeight());
+            if (img.getWidth() == 120) {
+                // The gray PNG keeps its gray.
+                BufferedImage embedded = img.getImage();
+                assertEquals(0xFF4C4C4C, embedded.getRGB(0, 0));
+                assertEquals(0xFF4C4C4C, embedded.getRGB(119, 79));
+            }
+        }
+        doc.close();
+        Collections.sort(sizes);
+        assertEquals(Arrays.asList("120x80", "400x267", "60x40"), sizes);
+    }
+
+    /** Images in a few colors, sizes, and formats, and each image's pixels by its name. */
+    private static Map<String,List<Integer>> imagesByName(DocOptions options) throws IOException {
+        PdfLayoutMgr pageMgr = PdfLayoutMgr.of(PDDeviceRGB.INSTANCE, PDRectangle.LETTER, options);
+        LogicalPage lp = pageMgr.logicalPageStart(LogicalPage.Orientation.PORTRAIT);
+        float y = lp.yPageTop();
+        Color[] colors = new Color[] { Color.RED, Color.GREEN, Color.BLUE, Color.ORANGE };
+        for (int i = 0; i < colors.length; i++) {
+            BufferedImage bi = logo(BufferedImage.TYPE_INT_RGB, colors[i]);
+            ByteArrayOutputStream png = new ByteArrayOutputStream();
+            ImageIO.write(bi, "png", png);
+            y = lp.putRow(40f, y, Cell.of(CellStyle.DEFAULT, 100f, ScaledJpeg.of(bi, 40, 20 + i)),
+                          Cell.of(CellStyle.DEFAULT, 100f, ScaledPng.of(bi)),
+                          Cell.of(CellStyle.DEFAULT, 100f, ScaledPng.of(png.toByteArray(), 30, 20)),
+                          // Drawn again after it's (maybe) been embedded.
+                          Cell.of(CellStyle.DEFAULT, 100f, ScaledJpeg.of(bi, 60, 40)),
+                          // With a soft mask.
+                          Cell.of(CellStyle.DEFAULT, 100f,
+                                  ScaledPng.of(logo(BufferedImage.TYPE_INT_ARGB, colors[i]))));
+        }
+        lp.commit();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        pageMgr.save(baos);
+
+        PDDocument doc = PDDocument.load(baos.toByteArray());
+        PDResources res = doc.getPage(0).getResources();
+        Map<String,List<Integer>> images = new HashMap<String,List<Integer>>();
+        for (COSName name : res.getXObjectNames()) {
+            BufferedImage img = ((PDImageXObject) res.getXObject(name)).getImage();
+            List<Integer> pixels = new ArrayList<Integer>();
+            pixels.add(img.getWidth());
+            for (int py = 0; py < img.getHeight(); py++) {
+                for (int px = 0; px < img.getWidth(); px++) {
+                    pixels.add(img.getRGB(px, py));
+                }
+            }
+            images.put(name.getName(), pixels);
+        }
+        doc.close();
+        return images;
+    }
+
+    @Test public void imagesEmbeddedOnExecutor() throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            Map<String,List<Integer>> expected = imagesByName(DocOptions.DEFAULT);
+            assertEquals(16, expected.size());
+            assertEquals(expected, imagesByName(DocOptions.builder().imageExecutor(executor)
+                                                          .build()));
+
+            DocOptions shrunk = DocOptions.builder().maxImageDpi(50).build();
+            Map<String,List<Integer>> expectedShrunk = imagesByName(shrunk);
+            assertEquals(expectedShrunk, imagesByName(shrunk.imageExecutor(executor)));
+            assertFalse(expected.equals(expectedShrunk));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /** Counts how many times the image is opened. */
+    private static class CountingSource implements ImageSource {
+        private final byte[] bytes;
+        int opened = 0;
+        CountingSource(byte[] b) { bytes = b; }
+        @Override public InputStream open() {
+            opened++;
+            return new ByteArrayInputStream(bytes);
+        }
+    }
+
+    @Test public void lazyImagesReadAtCommit() throws IOException {
+        InputStream is = PdfLayoutMgrTest.class.getResourceAsStream("/melon.jpg");
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        int b;
+        while ((b = is.read()) != -1) { file.write(b); }
+        is.close();
+        byte[] jpeg = file.toByteArray();
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        // Alpha, so it has to be decoded.
+        ImageIO.write(logo(BufferedImage.TYPE_INT_ARGB, Color.RED), "png", png);
+        File pngFile = File.createTempFile("lazy", ".png");
+        try {
+            FileOutputStream fos = new FileOutputStream(pngFile);
+            fos.write(png.toByteArray());
+            fos.close();
+
+            CountingSource jpegSource = new CountingSource(jpeg);
+            ScaledJpeg sj = ScaledJpeg.lazy(jpegSource);
+            // Only the header so far.
+            assertEquals(1, jpegSource.opened);
+            assertNull(sj.bufferedImage());
+            assertEquals(ScaledJpeg.of(jpeg).dimensions(), sj.dimensions());
+            assertEquals(XyDim.of(60 * ScaledPng.IMAGE_SCALE, 40 * ScaledPng.IMAGE_SCALE),
+                         ScaledPng.lazy(pngFile).dimensions());
+
+            PdfLayoutMgr pageMgr = PdfLayoutMgr.newRgbPageMgr();
+            LogicalPage lp = pageMgr.logicalPageStart(LogicalPage.Orientation.PORTRAIT);
+            float y = lp.putRow(40f, lp.yPageTop(), Cell.of(CellStyle.DEFAULT, 200f, sj),
+                                Cell.of(CellStyle.DEFAULT, 200f, ScaledPng.lazy(pngFile, 60, 40)));
+            // The same file, opened again.
+            lp.putRow(40f, y, Cell.of(CellStyle.DEFAULT, 200f, sj),
+                      Cell.of(CellStyle.DEFAULT, 200f, ScaledPng.lazy(pngFile)));
+            assertEquals(1, jpegSource.opened);
+            lp.commit();
+            assertEquals(2, jpegSource.opened);
+            assertEquals(2, pageMgr.stats().images());
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            pageMgr.save(baos);
+
+            PDDocument doc = PDDocument.load(baos.toByteArray());
+            PDResources res = doc.getPage(0).getResources();
+            int xObjects = 0;
+            for (COSName name : res.getXObjectNames()) {
+                PDImageXObject img = (PDImageXObject) res.getXObject(name);
+                if (COSName.DCT_DECODE.equals(img.getCOSObject()
+                                                 .getDictionaryObject(COSName.FILTER))) {
+                    // The JPEG still goes in as-is.
+                    assertEquals(jpeg.length, img.getCOSObject().getLength());
+                } else {
+                    assertEquals(60, img.getWidth());
+                    assertEquals(0xFFFF0000, img.getImage().getRGB(30, 20));
+                }
+                xObjects++;
+            }
+            doc.close();
+            assertEquals(2, xObjects);
+        } finally {
+            pngFile.delete();
+        }
+    }
+
+    @Test public void lazyPngThatIsntAPng() throws IOException {
+        InputStream is = PdfLayoutMgrTest.class.getResourceAsStream("/melon.jpg");
+        byte[] jpeg = Utils.readAll(is);
+        is.close();
+        ScaledPng sp = ScaledPng.lazy(new CountingSource(jpeg));
+
+        PdfLayoutMgr pageMgr = PdfLayoutMgr.newRgbPageMgr();
+        LogicalPage lp = pageMgr.logicalPageStart(LogicalPage.Orientation.PORTRAIT);
+        lp.putCell(40f, lp.yPageTop(), Cell.of(CellStyle.DEFAULT, 200f, sp));
+        lp.commit();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        pageMgr.save(baos);
+
+        // Decoded and embedded losslessly, like any other PNG that can't go in as-is.
+        PDDocument doc = PDDocument.load(baos.toByteArray());
+        PDResources res = doc.getPage(0).getResources();
+        PDImageXObject img =
+                (PDImageXObject) res.getXObject(res.getXObjectNames().iterator().next());
+        assertEquals(COSName.FLATE_DECODE,
+                     img.getCOSObject().getDictionaryObject(COSName.FILTER));
+        assertEquals(ImageIO.read(new ByteArrayInputStream(jpeg)).getWidth(), img.getWidth());
+        doc.close();
+    }
+
+    @Test public void headerDrawnOnceAsForm() throws IOException {
+        for (LogicalPage.Orientation o : LogicalPage.Orientation.values()) {
+            PdfLayoutMgr pageMgr = PdfLayoutMgr.newRgbPageMgr();
+            LogicalPage lp = pageMgr.logicalPageStart(o);
+            TextStyle ts = TextStyle.of(PDType1Font.HELVETICA, 9.5f, Color.BLACK);
+            lp.putCellAsHeaderFooter(40f, lp.yPageTop() + 10,
+                                     Cell.of(CellStyle.DEFAULT, 300f, ts, "The Same Header"));
+            // Three pages worth of rows.
+            float y = lp.yPageTop();
+            for (int i = 0; i < 3 * (int) (lp.printAreaHeight() / 10); i++) {
+                y = lp.putRow(40f, y, Cell.of(CellStyle.DEFAULT, 200f, ts, "Row " + i));
+            }
+            lp.commit();
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            pageMgr.save(baos);
+
+            PDDocument doc = PDDocument.load(baos.toByteArray());
+            int numPages = doc.getNumberOfPages();
+            assertTrue(numPages >= 3);
+            // The header is on every page...
+            PDFTextStripper stripper = new PDFTextStripper();
+            for (int p = 1; p <= numPages; p++) {
+                stripper.setStartPage(p);
+                stripper.setEndPage(p);
+                assertTrue(stripper.getText(doc).contains("The Same Header"));
+            }
+            doc.close();
+            // But each page only refers to it.
+            Map<String,Integer> ops = countOperators(baos.toByteArray());
+            assertEquals(numPages, (int) ops.get("Do"));
+        }
+    }
+
+    @Test public void stampedCellsDrawnOnce() throws IOException {
+        PdfLayoutMgr pageMgr = PdfLayoutMgr.newRgbPageMgr();
+        LogicalPage lp = pageMgr.logicalPageStart(LogicalPage.Orientation.PORTRAIT);
+        TextStyle ts = TextStyle.of(PDType1Font.HELVETICA, 9.5f, Color.BLACK);
+        CellStyle badgeStyle = CellStyle.of(CellStyle.Align.MIDDLE_CENTER, Padding.of(2),
+                                            new Color(0xccffcc),
+                                            BorderStyle.of(Color.BLACK));
+        Cell badge = Cell.of(badgeStyle, 80f, ts, "Approved").stamped();
+        assertTrue(badge.isStamped());
+        assertSame(badge, badge.stamped());
+        assertFalse(Cell.of(badgeStyle, 80f, ts, "Approved").isStamped());
+
+        // Two pages worth of rows.
+        int numRows = 2 * (int) (lp.printAreaHeight() / 20);
+        float y = lp.yPageTop();
+        for (int i = 0; i < numRows; i++) {
+            // An equal cell, but not the same one.
+            y = lp.putRow(40f, y, Cell.of(CellStyle.DEFAULT, 200f, ts, "Row " + i),
+                          Cell.of(badgeStyle, 80f, ts, "Approved").stamped());
+        }
+        lp.commit();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        pageMgr.save(baos);
+
+        // Recorded once, as one form for the background and one for the text and border.
+        assertEquals(1, pageMgr.stamps().size());
+        PDDocument doc = PDDocument.load(baos.toByteArray());
+        int numPages = doc.getNumberOfPages();
+        assertTrue(numPages >= 2);
+        String text = new PDFTextStripper().getText(doc);
+        doc.close();
+        int approved = 0;
+        for (int i = text.indexOf("Approved"); i >= 0; i = text.indexOf("Approved", i + 1)) {
+            approved++;
+        }
+        assertEquals(numRows, approved);
+
+        // Any badge that falls on a page break is drawn the usual way.
+        Map<String,Integer> ops = countOperators(baos.toByteArray());
+        int dos = ops.get("Do");
+        assertEquals(0, dos % 2);
+        assertTrue(dos >= 2 * (numRows - numPages));
+        int drawnTheUsualWay = numRows - (dos / 2);
+        assertEquals(numRows + drawnTheUsualWay, (int) ops.get("Tj"));
+    }
+}
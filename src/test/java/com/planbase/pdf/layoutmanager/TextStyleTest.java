@@ -3,6 +3,8 @@ package com.planbase.pdf.layoutmanager;
 import org.apache.pdfbox.pdmodel.font.PDType1Font;
 import org.junit.Test;
 
+import java.io.IOException;
+
 import static com.planbase.pdf.layoutmanager.TextStyle.of;
 import static java.awt.Color.*;
 import static org.junit.Assert.*;
@@ -22,4 +24,14 @@ public class TextStyleTest {
         assertEquals(0.754687488079071, of(PDType1Font.HELVETICA, 7f, BLACK).leading(),
                      0.00000001);
     }
-}
\ No newline at end of file
+
+    @Test public void widthTableMatchesFont() throws IOException {
+        // Includes characters outside the table and characters which WinAnsi maps differently.
+        String s = "Quick brown \u00e9t\u00e9 \u20ac5.00 \u2014 \u00ff \u0152uvre";
+        for (PDType1Font f : new PDType1Font[] { PDType1Font.HELVETICA, PDType1Font.TIMES_ITALIC,
+                                                 PDType1Font.COURIER_BOLD }) {
+            assertEquals(f.getStringWidth(s) * (11f / 960f),
+                         of(f, 11f, BLACK).stringWidthInDocUnits(s), 0f);
+        }
+    }
+}
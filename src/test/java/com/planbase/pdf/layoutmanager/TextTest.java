@@ -0,0 +1,129 @@
+package com.planbase.pdf.layoutmanager;
+
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.junit.Test;
+
+import static java.awt.Color.BLACK;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TextTest {
+    private static final String PANGRAMS =
+            "The quick brown fox jumps over the lazy dog. Pack my box with five dozen liquor jugs.";
+
+    @Test public void wrapDimensions() {
+        // These values came from the line breaker that measured a new substring for each
+        // candidate line.  Measuring each character once must not change them.
+        TextStyle ts = TextStyle.of(PDType1Font.HELVETICA, 9.5f, BLACK);
+        assertEquals(XyDim.of(98.99792f, 40.711456f), Text.of(ts, PANGRAMS).calcDimensions(100f));
+
+        // Words that are too long for the width run over.
+        ts = TextStyle.of(PDType1Font.TIMES_BOLD, 12f, BLACK);
+        assertEquals(XyDim.of(156.96251f, 75.6375f),
+                     Text.of(ts, "Supercalifragilisticexpialidocious antidisestablishmentarianism " +
+                                 "pneumonoultramicroscopicsilicovolcanoconiosis")
+                         .calcDimensions(72f));
+    }
+
+    @Test public void cumulativeWidthsMatchStringWidth() {
+        TextStyle ts = TextStyle.of(PDType1Font.HELVETICA, 9.5f, BLACK);
+        double[] cum = ts.cumulativeWidths(PANGRAMS);
+        assertEquals(PANGRAMS.length() + 1, cum.length);
+        for (int start = 0; start < PANGRAMS.length(); start += 7) {
+            for (int end = start; end <= PANGRAMS.length(); end += 5) {
+                assertEquals(ts.stringWidthInDocUnits(PANGRAMS.substring(start, end)),
+                             ts.widthInDocUnits(cum, start, end), 0f);
+            }
+        }
+    }
+
+    @Test public void totalFitUsesNoExtraLines() {
+        TextStyle firstFit = TextStyle.of(PDType1Font.HELVETICA, 9.5f, BLACK);
+        TextStyle totalFit = firstFit.lineBreaking(TextStyle.LineBreaking.TOTAL_FIT);
+        assertEquals(firstFit.leading(), totalFit.leading(), 0f);
+
+        String s = PANGRAMS + " " + PANGRAMS + " " + PANGRAMS;
+        for (float w = 60f; w < 400f; w += 13.7f) {
+            XyDim ff = Text.of(firstFit, s).calcDimensions(w);
+            XyDim tf = Text.of(totalFit, s).calcDimensions(w);
+            assertEquals(ff.y(), tf.y(), 0f);
+            assertTrue(tf.x() <= w);
+        }
+    }
+
+    @Test public void hyphenation() {
+        String s = "Transportation of international commitments understandably " +
+                   "necessitates unaccountably meticulous attention.";
+        for (TextStyle.LineBreaking lb : TextStyle.LineBreaking.values()) {
+            TextStyle plain = TextStyle.of(PDType1Font.HELVETICA, 9.5f, BLACK).lineBreaking(lb);
+            TextStyle hyphenated = plain.hyphenator(Hyphenator.sample());
+            assertSame(Hyphenator.sample(), hyphenated.hyphenator());
+
+            // Without hyphenation, the long words run over.
+            assertTrue(Text.of(plain, s).calcDimensions(50f).x() > 50f);
+            // With it, everything fits.
+            assertTrue(Text.of(hyphenated, s).calcDimensions(50f).x() <= 50f);
+
+            // When every word fits on a line, hyphenation never adds lines.
+            for (float w = 68f; w < 200f; w += 4f) {
+                XyDim before = Text.of(plain, s).calcDimensions(w);
+                XyDim after = Text.of(hyphenated, s).calcDimensions(w);
+                assertTrue(after.x() <= w);
+                assertTrue(after.y() <= before.y());
+            }
+            // Here it saves one.
+            assertEquals(Text.of(plain, s).calcDimensions(100f).y() - plain.lineHeight(),
+                         Text.of(hyphenated, s).calcDimensions(100f).y(), 0.0001f);
+        }
+    }
+
+    @Test public void sharedWrapCache() throws InterruptedException {
+        TextStyle ts = TextStyle.of(PDType1Font.HELVETICA, 9.5f, BLACK);
+        assertNull(WrapCache.shared());
+        WrapCache wc = WrapCache.enable(100);
+        try {
+            assertSame(wc, WrapCache.shared());
+            XyDim dim = Text.of(ts, PANGRAMS).calcDimensions(100f);
+            assertEquals(0, wc.hits());
+            assertEquals(1, wc.misses());
+
+            // A new Text with the same string, style, and width is wrapped already.
+            assertEquals(dim, Text.of(ts, PANGRAMS).calcDimensions(100f));
+            assertEquals(1, wc.hits());
+
+            // A Text remembers its own wrappings without asking the cache again.
+            Text t = Text.of(ts, PANGRAMS);
+            t.calcDimensions(100f);
+            t.calcDimensions(100f);
+            assertEquals(2, wc.hits());
+
+            // Any difference is a miss.
+            Text.of(ts, PANGRAMS).calcDimensions(101f);
+            TextStyle ts2 = ts.textColor(BLACK);
+            Text.of(ts2, PANGRAMS).calcDimensions(100f);
+            Text.of(ts, PANGRAMS + ".").calcDimensions(100f);
+            assertEquals(2, wc.hits());
+            assertEquals(4, wc.misses());
+            assertEquals(4, wc.size());
+
+            // It doesn't keep a style (and its font's document) alive.
+            ts2 = null;
+            for (int i = 0; (i < 100) && (wc.size() > 3); i++) {
+                System.gc();
+                Thread.sleep(10);
+            }
+            assertEquals(3, wc.size());
+
+            // It's bounded.
+            for (int i = 0; i < 1000; i++) {
+                Text.of(ts, PANGRAMS).calcDimensions(100f + i);
+            }
+            assertTrue(wc.size() <= 16 * ((100 + 15) / 16));
+        } finally {
+            WrapCache.disable();
+        }
+        assertNull(WrapCache.shared());
+    }
+}